@@ -0,0 +1,68 @@
+package com.github.dag.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在调用线程上通过预分配环形缓冲区执行任务的单线程执行器, 自身不分配也不切换线程,
+ * 用于把引擎调度路径的开销与分配从线程池队列中剥离出来单独度量. 非线程安全
+ */
+public class CallerRunsExecutor extends AbstractExecutorService {
+
+    private final Runnable[] ring;
+
+    private int head;
+
+    private int tail;
+
+    private boolean draining;
+
+    public CallerRunsExecutor(int capacityPowerOfTwo) {
+        this.ring = new Runnable[1 << capacityPowerOfTwo];
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        ring[tail++ & (ring.length - 1)] = command;
+        if (draining) {
+            return;
+        }
+        draining = true;
+        try {
+            while (head != tail) {
+                int slot = head++ & (ring.length - 1);
+                Runnable r = ring[slot];
+                ring[slot] = null;
+                r.run();
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return true;
+    }
+}
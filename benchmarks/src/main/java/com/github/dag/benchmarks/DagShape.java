@@ -0,0 +1,140 @@
+package com.github.dag.benchmarks;
+
+import com.github.dag.core.graph.Graph;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 基准测试使用的 DAG 形状, 节点以 0 ~ size-1 的整数表示, 随机形状使用固定种子保证可复现
+ */
+public enum DagShape {
+
+    /**
+     * 宽扇出: 0 -> 1..size-1
+     */
+    FAN_OUT {
+        @Override
+        int[][] edges(int size) {
+            int[] from = new int[size - 1];
+            int[] to = new int[size - 1];
+            for (int i = 1; i < size; i++) {
+                from[i - 1] = 0;
+                to[i - 1] = i;
+            }
+            return new int[][]{from, to};
+        }
+    },
+
+    /**
+     * 深链: 0 -> 1 -> ... -> size-1
+     */
+    CHAIN {
+        @Override
+        int[][] edges(int size) {
+            int[] from = new int[size - 1];
+            int[] to = new int[size - 1];
+            for (int i = 1; i < size; i++) {
+                from[i - 1] = i - 1;
+                to[i - 1] = i;
+            }
+            return new int[][]{from, to};
+        }
+    },
+
+    /**
+     * 首尾相连的菱形: 3k -> 3k+1, 3k -> 3k+2, 3k+1 -> 3k+3, 3k+2 -> 3k+3
+     */
+    DIAMOND {
+        @Override
+        int[][] edges(int size) {
+            int diamonds = (size - 1) / 3;
+            int[] from = new int[diamonds * 4];
+            int[] to = new int[diamonds * 4];
+            for (int k = 0, e = 0; k < diamonds; k++) {
+                int top = 3 * k;
+                from[e] = top;
+                to[e++] = top + 1;
+                from[e] = top;
+                to[e++] = top + 2;
+                from[e] = top + 1;
+                to[e++] = top + 3;
+                from[e] = top + 2;
+                to[e++] = top + 3;
+            }
+            return new int[][]{from, to};
+        }
+    },
+
+    /**
+     * 随机分层: 宽度约为 sqrt(size), 每个节点随机依赖上一层的 1 ~ 3 个节点
+     */
+    RANDOM_LAYERED {
+        @Override
+        int[][] edges(int size) {
+            Random random = new Random(42);
+            int width = Math.max(1, (int) Math.sqrt(size));
+            int[] from = new int[size * 3];
+            int[] to = new int[size * 3];
+            int e = 0;
+            for (int i = width; i < size; i++) {
+                int layerStart = (i / width - 1) * width;
+                int fanIn = 1 + random.nextInt(3);
+                int first = random.nextInt(width);
+                for (int j = 0; j < fanIn; j++) {
+                    from[e] = layerStart + (first + j) % width;
+                    to[e++] = i;
+                }
+            }
+            return new int[][]{Arrays.copyOf(from, e), Arrays.copyOf(to, e)};
+        }
+    },
+
+    /**
+     * 高扇入汇聚: 0..size-2 -> size-1
+     */
+    FAN_IN {
+        @Override
+        int[][] edges(int size) {
+            int[] from = new int[size - 1];
+            int[] to = new int[size - 1];
+            for (int i = 0; i < size - 1; i++) {
+                from[i] = i;
+                to[i] = size - 1;
+            }
+            return new int[][]{from, to};
+        }
+    };
+
+    /**
+     * 生成边, 返回 {from[], to[]}
+     *
+     * @param size
+     * @return
+     */
+    abstract int[][] edges(int size);
+
+    /**
+     * 通过 Graph.Builder 构建
+     *
+     * @param size
+     * @param edges
+     * @return
+     */
+    static Graph<Integer> build(int size, int[][] edges) {
+        Graph.Builder<Integer> builder = Graph.builder();
+        for (int i = 0; i < size; i++) {
+            builder.addNode(i);
+        }
+        int[] from = edges[0];
+        int[] to = edges[1];
+        for (int e = 0; e < from.length; e++) {
+            builder.addEdge(from[e], to[e]);
+        }
+        return builder.build();
+    }
+
+    Graph<Integer> graph(int size) {
+        return build(size, edges(size));
+    }
+}
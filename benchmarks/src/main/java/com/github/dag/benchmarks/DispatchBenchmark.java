@@ -0,0 +1,48 @@
+package com.github.dag.benchmarks;
+
+import com.github.dag.core.ConcExecute;
+import com.github.dag.core.ExecutionPlan;
+import com.github.dag.core.graph.Graph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程下引擎自身的每节点调度开销, 配合 GC profiler 验证稳态下每个节点无分配:
+ * java -jar benchmarks/target/benchmarks.jar DispatchBenchmark -prof gc
+ * 关注 gc.alloc.rate.norm, 即每次执行(size 个节点)的分配字节数
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    @Param({"FAN_OUT", "CHAIN", "DIAMOND", "RANDOM_LAYERED", "FAN_IN"})
+    public DagShape shape;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"0", "16"})
+    public int inlineDepth;
+
+    private ExecutionPlan<Integer> plan;
+
+    private ConcExecute.Handler<Integer> handler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Graph<Integer> graph = shape.graph(size);
+        plan = ExecutionPlan.builder(graph, new CallerRunsExecutor(20)).inlineDepth(inlineDepth).build();
+        handler = (node, submitTime) -> {
+        };
+    }
+
+    @Benchmark
+    public Object execute() {
+        return plan.executeSync(handler);
+    }
+}
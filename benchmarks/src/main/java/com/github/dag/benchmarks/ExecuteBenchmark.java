@@ -0,0 +1,103 @@
+package com.github.dag.benchmarks;
+
+import com.github.dag.core.ConcExecute;
+import com.github.dag.core.ExecutionPlan;
+import com.github.dag.core.graph.Graph;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端执行一个 DAG 的耗时, 除以 size 即每个节点的调度开销.
+ * <p>
+ * work 为每个节点调用 {@link Blackhole#consumeCPU(long)} 的 token 数, 0 即空操作节点.
+ * plainExecutor 为基线: 不考虑依赖关系, 直接向同一线程池提交 size 个任务并等待全部完成.
+ * 运行: java -jar benchmarks/target/benchmarks.jar ExecuteBenchmark -p shape=DIAMOND -p size=10000 -p work=0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteBenchmark {
+
+    @Param({"FAN_OUT", "CHAIN", "DIAMOND", "RANDOM_LAYERED", "FAN_IN"})
+    public DagShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"0", "100"})
+    public long work;
+
+    @Param({"4"})
+    public int threads;
+
+    private ExecutorService pool;
+
+    private Graph<Integer> graph;
+
+    private ExecutionPlan<Integer> plan;
+
+    private ExecutionPlan<List<Integer>> chainedPlan;
+
+    private ConcExecute.Handler<Integer> handler;
+
+    private ConcExecute.Handler<List<Integer>> chainedHandler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = Executors.newFixedThreadPool(threads);
+        graph = shape.graph(size);
+        plan = new ExecutionPlan<>(graph, pool);
+        chainedPlan = new ExecutionPlan<>(graph.chaining(), pool);
+        long tokens = work;
+        handler = (node, submitTime) -> Blackhole.consumeCPU(tokens);
+        chainedHandler = (nodes, submitTime) -> {
+            for (int i = 0, n = nodes.size(); i < n; i++) {
+                Blackhole.consumeCPU(tokens);
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public Object concExecute() {
+        return new ConcExecute<>(graph, pool).executeSync(handler);
+    }
+
+    @Benchmark
+    public Object plan() {
+        return plan.executeSync(handler);
+    }
+
+    @Benchmark
+    public Object chainedPlan() {
+        return chainedPlan.executeSync(chainedHandler);
+    }
+
+    @Benchmark
+    public Object plainExecutor() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(size);
+        long tokens = work;
+        Runnable task = () -> {
+            Blackhole.consumeCPU(tokens);
+            latch.countDown();
+        };
+        for (int i = 0; i < size; i++) {
+            pool.execute(task);
+        }
+        latch.await();
+        return latch;
+    }
+}
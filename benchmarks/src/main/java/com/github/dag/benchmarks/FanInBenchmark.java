@@ -0,0 +1,70 @@
+package com.github.dag.benchmarks;
+
+import com.github.dag.core.ConcExecute;
+import com.github.dag.core.ExecutionPlan;
+import com.github.dag.core.graph.Graph;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 高扇入汇合节点的计数争用: size - 1 个前置节点并发完成后汇合到同一个节点.
+ * <p>
+ * striped=false 时所有前置节点对同一个入度槽位做原子减, striped=true 时使用默认阈值下的条带计数.
+ * FAN_OUT 对应根节点出度计数的同类争用, DIAMOND 没有高度数节点, 作为无回退的对照.
+ * 差异随核数增大而明显, 建议在 32 核以上运行:
+ * java -jar benchmarks/target/benchmarks.jar FanInBenchmark -p threads=32,64
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanInBenchmark {
+
+    @Param({"FAN_IN", "FAN_OUT", "DIAMOND"})
+    public DagShape shape;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean striped;
+
+    @Param({"0"})
+    public long work;
+
+    @Param({"32"})
+    public int threads;
+
+    private ExecutorService pool;
+
+    private ExecutionPlan<Integer> plan;
+
+    private ConcExecute.Handler<Integer> handler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = Executors.newFixedThreadPool(threads);
+        Graph<Integer> graph = shape.graph(size);
+        plan = ExecutionPlan.builder(graph, pool)
+                .stripedCounterThreshold(striped ? ExecutionPlan.DEFAULT_STRIPED_COUNTER_THRESHOLD : Integer.MAX_VALUE)
+                .build();
+        long tokens = work;
+        handler = (node, submitTime) -> Blackhole.consumeCPU(tokens);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public Object execute() {
+        return plan.executeSync(handler);
+    }
+}
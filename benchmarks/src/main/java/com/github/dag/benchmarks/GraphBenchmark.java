@@ -0,0 +1,93 @@
+package com.github.dag.benchmarks;
+
+import com.github.dag.core.graph.Graph;
+import com.github.dag.core.graph.GraphAnalysis;
+import com.github.dag.core.graph.GraphFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Graph 构建、DAG 校验与 chaining 的耗时.
+ * build 为逐个添加节点与边的 {@link Graph.Builder}, bulkBuild/parallelBulkBuild 为基于 int id 的 {@link Graph.BulkBuilder},
+ * loadStages 为从 {@link GraphFile} 映射并构造 chaining 后的 stage 图, 与 build + chaining 对比启动开销
+ * <p>
+ * 运行: java -jar benchmarks/target/benchmarks.jar GraphBenchmark -p shape=CHAIN -p size=100000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphBenchmark {
+
+    @Param({"FAN_OUT", "CHAIN", "DIAMOND", "RANDOM_LAYERED", "FAN_IN"})
+    public DagShape shape;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    private int[][] edges;
+
+    private Graph<Integer> graph;
+
+    private Path stageFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        edges = shape.edges(size);
+        graph = DagShape.build(size, edges);
+        stageFile = Files.createTempFile("stages", ".graph");
+        GraphFile.writeStages(graph.chaining(), stageFile, Integer::intValue);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(stageFile);
+    }
+
+    @Benchmark
+    public Graph<Integer> build() {
+        return DagShape.build(size, edges);
+    }
+
+    @Benchmark
+    public Graph<Integer> bulkBuild() {
+        return Graph.bulkBuilder(size).addEdges(edges[0], edges[1]).build();
+    }
+
+    @Benchmark
+    public Graph<Integer> parallelBulkBuild() {
+        return Graph.bulkBuilder(size).addEdges(edges[0], edges[1]).parallel().build();
+    }
+
+    @Benchmark
+    public boolean isDAG() {
+        return graph.isDAG();
+    }
+
+    @Benchmark
+    public GraphAnalysis<Integer> analyze() {
+        return graph.analyze();
+    }
+
+    @Benchmark
+    public Graph<List<Integer>> chaining() {
+        return graph.chaining();
+    }
+
+    @Benchmark
+    public Graph<List<Integer>> buildAndChain() {
+        return DagShape.build(size, edges).chaining();
+    }
+
+    @Benchmark
+    public Graph<List<Integer>> loadStages() throws IOException {
+        return GraphFile.map(stageFile).toStageGraph(Integer::valueOf);
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.dag.benchmarks;
+
+import com.github.dag.core.ExecutionPlan;
+import com.github.dag.core.graph.Graph;
+import com.github.dag.core.stream.StreamingExecution;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一批记录逐条流过同一个小 DAG 的吞吐: 每条记录一次 executeDataflow 与流水线式流执行的对比.
+ * <p>
+ * batchSize 只作用于流执行, 1 即逐条传递.
+ * 运行: java -jar benchmarks/target/benchmarks.jar StreamingBenchmark -p shape=DIAMOND
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingBenchmark {
+
+    private static final int RECORDS = 10000;
+
+    @Param({"CHAIN", "DIAMOND"})
+    public DagShape shape;
+
+    @Param({"16"})
+    public int size;
+
+    @Param({"100"})
+    public long work;
+
+    @Param({"1", "16"})
+    public int batchSize;
+
+    @Param({"4"})
+    public int threads;
+
+    private ExecutorService pool;
+
+    private Graph<Integer> graph;
+
+    private ExecutionPlan<Integer> plan;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = Executors.newFixedThreadPool(threads);
+        graph = shape.graph(size);
+        plan = new ExecutionPlan<>(graph, pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public Object perRecord() throws Exception {
+        long tokens = work;
+        Object last = null;
+        for (int i = 0; i < RECORDS; i++) {
+            last = plan.executeDataflow((Integer node, java.util.List<Integer> inputs) -> {
+                Blackhole.consumeCPU(tokens);
+                return node;
+            }).get();
+        }
+        return last;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long streaming() throws Exception {
+        long tokens = work;
+        StreamingExecution<Integer, Integer> stream = StreamingExecution.builder(graph, pool)
+                .batchSize(batchSize)
+                .start((node, inputs) -> {
+                    Blackhole.consumeCPU(tokens);
+                    return node;
+                }, result -> {
+                });
+        for (int i = 0; i < RECORDS; i++) {
+            stream.submit(i);
+        }
+        stream.close();
+        stream.getCompletion().get();
+        return stream.getEmittedCount();
+    }
+}
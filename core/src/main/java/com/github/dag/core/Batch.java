@@ -0,0 +1,114 @@
+package com.github.dag.core;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个节点在批量执行中的一次调用, 包含本次参与的实例及其输入, 由 {@link ConcExecute.BatchHandler} 写回各实例的输出.
+ * <p>
+ * 第 i 个参与实例对应批中的第 {@link #instance(int)} 个实例; 源点的输入为实例自身的输入, 其余节点的输入为该实例各前置节点的输出,
+ * 顺序与反向邻接表一致. 仅在 computeBatch 调用期间有效
+ *
+ * @param <R>
+ */
+public final class Batch<R> {
+
+    private final int[] instances;
+
+    private final int size;
+
+    /**
+     * 前置节点的输出列, 源点为 null
+     */
+    private final List<Object[]> columns;
+
+    /**
+     * 各实例自身的输入, 仅源点使用
+     */
+    private final List<R> instanceInputs;
+
+    private final Object[] outputs;
+
+    private final Throwable[] failures;
+
+    Batch(int[] instances, int size, List<Object[]> columns, List<R> instanceInputs, Object[] outputs, Throwable[] failures) {
+        this.instances = instances;
+        this.size = size;
+        this.columns = columns;
+        this.instanceInputs = instanceInputs;
+        this.outputs = outputs;
+        this.failures = failures;
+    }
+
+    /**
+     * 本次参与的实例数
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 第 i 个参与实例在整批中的下标
+     *
+     * @param i
+     * @return
+     */
+    public int instance(int i) {
+        return instances[checkIndex(i)];
+    }
+
+    /**
+     * 第 i 个参与实例的输入
+     *
+     * @param i
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public List<R> inputs(int i) {
+        int instance = instance(i);
+        if (columns == null) {
+            return Collections.singletonList(instanceInputs.get(instance));
+        }
+        return new AbstractList<R>() {
+            @Override
+            public R get(int index) {
+                return (R) columns.get(index)[instance];
+            }
+
+            @Override
+            public int size() {
+                return columns.size();
+            }
+        };
+    }
+
+    /**
+     * 写回第 i 个参与实例的输出
+     *
+     * @param i
+     * @param output
+     */
+    public void set(int i, R output) {
+        outputs[instance(i)] = output;
+    }
+
+    /**
+     * 第 i 个参与实例失败, 其后继节点不再处理该实例
+     *
+     * @param i
+     * @param cause
+     */
+    public void fail(int i, Throwable cause) {
+        failures[instance(i)] = cause;
+    }
+
+    private int checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.dag.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 把批量执行适配为数据流执行: 每个节点的输出是一列, 第 i 个元素为第 i 个实例在该节点的输出,
+ * 未参与(已失败或前置节点未产出)的实例记为 {@link #SKIPPED}
+ *
+ * @param <T>
+ * @param <R>
+ */
+final class BatchDataflow<T, R> implements ConcExecute.DataflowHandler<T, Object[]> {
+
+    static final Object SKIPPED = new Object();
+
+    private final ConcExecute.BatchHandler<T, R> handler;
+
+    private final List<R> inputs;
+
+    /**
+     * 各实例的结果, 实例失败时立即以异常完成, 其余在整批结束后完成
+     */
+    private final List<CompletableFuture<Map<T, R>>> results;
+
+    BatchDataflow(ConcExecute.BatchHandler<T, R> handler, List<R> inputs, List<CompletableFuture<Map<T, R>>> results) {
+        this.handler = handler;
+        this.inputs = inputs;
+        this.results = results;
+    }
+
+    @Override
+    public Object[] compute(T node, List<Object[]> columns) {
+        int n = inputs.size();
+        Object[] outputs = new Object[n];
+        Arrays.fill(outputs, SKIPPED);
+        int[] live = new int[n];
+        int size = 0;
+        next:
+        for (int i = 0; i < n; i++) {
+            if (results.get(i).isDone()) {
+                continue;
+            }
+            for (Object[] column : columns) {
+                if (column[i] == SKIPPED) {
+                    continue next;
+                }
+            }
+            outputs[i] = null;
+            live[size++] = i;
+        }
+        if (size == 0) {
+            return outputs;
+        }
+        Throwable[] failures = new Throwable[n];
+        try {
+            handler.computeBatch(node, new Batch<>(live, size, columns.isEmpty() ? null : columns, inputs, outputs, failures));
+        } catch (Exception e) {
+            for (int i = 0; i < size; i++) {
+                failures[live[i]] = e;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            int instance = live[i];
+            if (failures[instance] != null) {
+                outputs[instance] = SKIPPED;
+                results.get(instance).completeExceptionally(failures[instance]);
+            }
+        }
+        return outputs;
+    }
+
+    @Override
+    public void cleanup(T node) {
+        handler.cleanup(node);
+    }
+
+    /**
+     * 整批结束: 尚未失败的实例以其汇点输出完成; 整批异常结束(如线程池拒绝)时全部未完成的实例以该异常完成
+     *
+     * @param sinks
+     * @param cause
+     */
+    @SuppressWarnings("unchecked")
+    void finish(Map<T, Object[]> sinks, Throwable cause) {
+        for (int i = 0; i < results.size(); i++) {
+            CompletableFuture<Map<T, R>> result = results.get(i);
+            if (result.isDone()) {
+                continue;
+            }
+            if (cause != null) {
+                result.completeExceptionally(cause);
+                continue;
+            }
+            Map<T, R> outputs = new HashMap<>();
+            for (Map.Entry<T, Object[]> entry : sinks.entrySet()) {
+                outputs.put(entry.getKey(), (R) entry.getValue()[i]);
+            }
+            result.complete(outputs);
+        }
+    }
+}
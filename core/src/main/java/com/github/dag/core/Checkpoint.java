@@ -0,0 +1,386 @@
+package com.github.dag.core;
+
+import com.github.dag.core.graph.Graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 执行进度的持久化检查点, 进程崩溃后重新执行时只执行尚未完成的节点.
+ * <p>
+ * 节点完成状态记录在内存映射的位图文件中, 文件头包含图的节点数、边数与拓扑指纹, 打开时与图不符即拒绝.
+ * 配置 {@link OutputCodec} 后节点输出序列化追加到同名的 .outputs 日志文件中, 供数据流模式恢复时作为未完成节点的输入.
+ * <p>
+ * 热路径上节点完成只在内存中置位, 累计 {@link Builder#groupCommit(int, long)} 条或超过间隔后由完成节点的线程批量落盘(组提交):
+ * 先写输出日志并 force, 再把位图写入映射区并 force, 因此位图中已落盘的节点其输出必然已落盘.
+ * 执行结束(成功或失败)时落盘全部剩余记录; 两次组提交之间崩溃只会重新执行这期间完成的节点.
+ * <p>
+ * 同一检查点同时只能用于一次执行. 拓扑指纹不包含节点对象本身, 调用方需保证节点顺序与构建时一致
+ */
+public class Checkpoint implements Closeable {
+
+    private static final int MAGIC = 0x44414743;
+
+    private static final int VERSION = 1;
+
+    /**
+     * magic, version, 节点数, 边数, 拓扑指纹
+     */
+    private static final int HEADER_SIZE = 24;
+
+    private final int nodeCount;
+
+    private final int edgeCount;
+
+    private final long fingerprint;
+
+    private final FileChannel bitmapChannel;
+
+    private final MappedByteBuffer bitmap;
+
+    /**
+     * 内存中的完成位图, 领先于已落盘的位图
+     */
+    private final AtomicLongArray done;
+
+    private final OutputCodec<Object> codec;
+
+    private final FileChannel journal;
+
+    /**
+     * 恢复出的节点输出, 以节点下标索引; 未配置 codec 时为 null
+     */
+    private final Object[] restored;
+
+    private final ConcurrentLinkedQueue<Record> records = new ConcurrentLinkedQueue<>();
+
+    private final int groupCommitSize;
+
+    private final long groupCommitNanos;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile long lastCommit = System.nanoTime();
+
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    @SuppressWarnings("unchecked")
+    private Checkpoint(Builder builder, Graph<?> graph) throws IOException {
+        this.nodeCount = graph.getNodes().length;
+        this.edgeCount = graph.getAdjacency().length;
+        this.fingerprint = fingerprint(graph);
+        this.codec = (OutputCodec<Object>) builder.codec;
+        this.groupCommitSize = builder.groupCommitSize;
+        this.groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(builder.groupCommitMillis);
+        int words = (nodeCount + 63) >>> 6;
+        this.done = new AtomicLongArray(words);
+        this.bitmapChannel = FileChannel.open(builder.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = bitmapChannel.size() == 0;
+        this.bitmap = bitmapChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 8L * words);
+        if (fresh) {
+            bitmap.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, nodeCount).putInt(12, edgeCount).putLong(16, fingerprint);
+            bitmap.force();
+        } else {
+            if (bitmap.getInt(0) != MAGIC || bitmap.getInt(4) != VERSION) {
+                bitmapChannel.close();
+                throw new IllegalStateException("not a checkpoint file: " + builder.path);
+            }
+            if (bitmap.getInt(8) != nodeCount || bitmap.getInt(12) != edgeCount || bitmap.getLong(16) != fingerprint) {
+                bitmapChannel.close();
+                throw new IllegalStateException("checkpoint " + builder.path + " was written for a different graph");
+            }
+            for (int w = 0; w < words; w++) {
+                done.set(w, bitmap.getLong(HEADER_SIZE + 8 * w));
+            }
+        }
+        if (codec == null) {
+            this.journal = null;
+            this.restored = null;
+        } else {
+            this.journal = FileChannel.open(Paths.get(builder.path + ".outputs"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.restored = new Object[nodeCount];
+            replay();
+        }
+    }
+
+    public static Builder builder(Path path) {
+        return new Builder(path);
+    }
+
+    /**
+     * 逐条读取输出日志, 只恢复位图中已完成的节点, 末尾不完整的记录截断丢弃
+     */
+    private void replay() throws IOException {
+        long size = journal.size();
+        long position = 0;
+        ByteBuffer head = ByteBuffer.allocate(8);
+        while (position + 8 <= size) {
+            head.clear();
+            journal.read(head, position);
+            int idx = head.getInt(0);
+            int length = head.getInt(4);
+            if (idx < 0 || idx >= nodeCount || length < 0 || position + 8 + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            journal.read(body, position + 8);
+            if (isDone(idx)) {
+                restored[idx] = codec.decode(body.array());
+            }
+            position += 8 + length;
+        }
+        journal.truncate(position);
+        journal.position(position);
+    }
+
+    private static long fingerprint(Graph<?> graph) {
+        return 31L * Arrays.hashCode(graph.getAdjacencyOffset()) + Arrays.hashCode(graph.getAdjacency());
+    }
+
+    boolean matches(Graph<?> graph) {
+        return graph.getNodes().length == nodeCount && graph.getAdjacency().length == edgeCount && fingerprint(graph) == fingerprint;
+    }
+
+    boolean hasOutputs() {
+        return codec != null;
+    }
+
+    public boolean isDone(int idx) {
+        return (done.get(idx >>> 6) & (1L << idx)) != 0;
+    }
+
+    /**
+     * 尚未完成的节点下标
+     *
+     * @return
+     */
+    int[] remaining() {
+        int[] remaining = new int[nodeCount];
+        int size = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            if (!isDone(i)) {
+                remaining[size++] = i;
+            }
+        }
+        return Arrays.copyOf(remaining, size);
+    }
+
+    /**
+     * 已完成节点的输出写入 outputs
+     *
+     * @param outputs
+     */
+    void restore(Object[] outputs) {
+        for (int i = 0; i < nodeCount; i++) {
+            if (isDone(i)) {
+                outputs[i] = restored[i];
+            }
+        }
+    }
+
+    /**
+     * 节点完成, 先登记输出再置位, 使组提交看到的位必然有对应的输出记录
+     *
+     * @param idx
+     * @param outputs 本次执行的节点输出, 非数据流模式为 null; 未配置 codec 时忽略
+     */
+    void completed(int idx, Object[] outputs) {
+        if (codec != null && outputs != null) {
+            records.add(new Record(idx, codec.encode(outputs[idx])));
+        }
+        int w = idx >>> 6;
+        long bit = 1L << idx;
+        long word;
+        do {
+            word = done.get(w);
+        } while (!done.compareAndSet(w, word, word | bit));
+        if (pending.incrementAndGet() >= groupCommitSize || System.nanoTime() - lastCommit >= groupCommitNanos) {
+            // 已有线程在提交时直接返回, 由其或下一次提交带上本条记录
+            if (commitLock.tryLock()) {
+                try {
+                    commit();
+                } finally {
+                    commitLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 落盘全部已完成的记录
+     *
+     * @throws UncheckedIOException
+     */
+    public void flush() {
+        commitLock.lock();
+        try {
+            commit();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private void commit() {
+        pending.set(0);
+        lastCommit = System.nanoTime();
+        try {
+            // 先取位图快照再写日志: 快照中的位其输出记录已入队, 必然随本次日志落盘
+            int words = done.length();
+            long[] snapshot = new long[words];
+            for (int w = 0; w < words; w++) {
+                snapshot[w] = done.get(w);
+            }
+            if (codec != null) {
+                Record record;
+                boolean written = false;
+                while ((record = records.poll()) != null) {
+                    ByteBuffer buffer = ByteBuffer.allocate(8 + record.bytes.length);
+                    buffer.putInt(record.idx).putInt(record.bytes.length).put(record.bytes).flip();
+                    while (buffer.hasRemaining()) {
+                        journal.write(buffer);
+                    }
+                    written = true;
+                }
+                if (written) {
+                    journal.force(false);
+                }
+            }
+            boolean changed = false;
+            for (int w = 0; w < words; w++) {
+                int offset = HEADER_SIZE + 8 * w;
+                if (bitmap.getLong(offset) != snapshot[w]) {
+                    bitmap.putLong(offset, snapshot[w]);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                bitmap.force();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 清空进度, 下一次执行从头开始
+     */
+    public void clear() {
+        commitLock.lock();
+        try {
+            records.clear();
+            for (int w = 0; w < done.length(); w++) {
+                done.set(w, 0);
+                bitmap.putLong(HEADER_SIZE + 8 * w, 0);
+            }
+            bitmap.force();
+            if (journal != null) {
+                journal.truncate(0);
+                journal.position(0);
+                Arrays.fill(restored, null);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        bitmapChannel.close();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * 节点输出的序列化方式
+     *
+     * @param <R>
+     */
+    public interface OutputCodec<R> {
+        byte[] encode(R output);
+
+        R decode(byte[] bytes);
+    }
+
+    private static final class Record {
+
+        private final int idx;
+
+        private final byte[] bytes;
+
+        Record(int idx, byte[] bytes) {
+            this.idx = idx;
+            this.bytes = bytes;
+        }
+    }
+
+    public static class Builder {
+
+        private final Path path;
+
+        private int groupCommitSize = 256;
+
+        private long groupCommitMillis = 100;
+
+        private OutputCodec<?> codec;
+
+        private Builder(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * 累计 size 个节点完成或距上次提交超过 millis 毫秒时批量落盘, 后者只在有节点完成时检查
+         *
+         * @param size
+         * @param millis
+         * @return
+         */
+        public Builder groupCommit(int size, long millis) {
+            if (size <= 0 || millis < 0) {
+                throw new IllegalArgumentException("invalid group commit: size=" + size + ", millis=" + millis);
+            }
+            this.groupCommitSize = size;
+            this.groupCommitMillis = millis;
+            return this;
+        }
+
+        /**
+         * 同时持久化节点输出, 数据流模式的检查点必须配置
+         *
+         * @param codec
+         * @return
+         */
+        public Builder outputCodec(OutputCodec<?> codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * 打开检查点文件, 不存在时创建
+         *
+         * @param graph 执行计划使用的图
+         * @return
+         * @throws IOException
+         * @throws IllegalStateException 文件不是检查点, 或是为另一个图写入的
+         */
+        public Checkpoint open(Graph<?> graph) throws IOException {
+            return new Checkpoint(this, graph);
+        }
+    }
+}
@@ -1,42 +1,34 @@
 package com.github.dag.core;
 
 import com.github.dag.core.graph.Graph;
-import lombok.extern.slf4j.Slf4j;
 
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Created by huangyafeng on 2019/6/6.
  */
-@Slf4j
 public class ConcExecute<T> {
 
-    private CountDownLatch latch;
+    private final ExecutionPlan<T> plan;
 
-    private ExecutorService executeBackend;
-
-    private Graph<T> graph;
-
-    private AtomicIntegerArray inDegree;
-
-    private AtomicIntegerArray outDegree;
-
-    private volatile Thread currentThread;
-
-    private volatile Exception firstException;
-
-    private AtomicBoolean running = new AtomicBoolean(true);
+    private volatile CompletableFuture<Void> completion;
 
     public ConcExecute(Graph<T> graph, ExecutorService executeBackend) {
-        this.graph = graph;
-        this.inDegree = new AtomicIntegerArray(graph.getInDegree());
-        this.outDegree = new AtomicIntegerArray(graph.getOutDegree());
-        this.latch = new CountDownLatch(this.graph.getNodes().length);
-        this.executeBackend = executeBackend;
+        this(new ExecutionPlan<>(graph, executeBackend));
+    }
+
+    /**
+     * 基于已编译的执行计划创建, 执行时才从计划的上下文池取得执行状态, 结束后归还; 创建后未执行不占用上下文
+     *
+     * @param plan
+     */
+    public ConcExecute(ExecutionPlan<T> plan) {
+        this.plan = plan;
     }
 
     /**
@@ -51,92 +43,116 @@ public class ConcExecute<T> {
     }
 
     /**
-     * 异步执行
+     * 异步执行, 只能调用一次
      *
      * @param handler
+     * @return 全部节点完成时正常完成, 首个节点失败时以该异常完成, 可在任意线程上等待或组合
      */
-    public void executeAsync(Handler<T> handler) {
-        this.currentThread = Thread.currentThread();
-        for (Integer idx : graph.getZeroDegreeIdx()) {
-            iter(handler, graph.getNodeByIdx(idx), idx);
+    public CompletableFuture<Void> executeAsync(Handler<T> handler) {
+        if (completion != null) {
+            throw new IllegalStateException("ConcExecute can only be executed once");
+        }
+        ExecutionContext<T> context = plan.acquire();
+        try {
+            completion = context.executeAsync(handler);
+        } finally {
+            // 在途任务持有上下文引用, 执行结束后自动归还
+            context.release();
         }
+        return completion;
     }
 
     /**
-     * 异步执行调用 await 等待直接结束
+     * 异步执行调用 await 等待直接结束, 可在任意线程上调用
      *
      * @return
      */
     public Optional<Exception> await() {
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            // ignore
+        if (completion == null) {
+            throw new IllegalStateException("ConcExecute has not been executed");
         }
-        return Optional.ofNullable(firstException);
+        return ExecutionContext.await(completion);
     }
 
     /**
-     * 递归执行
+     * 通用的基于节点的处理方法,待实现
      *
-     * @param handler
-     * @param node
-     * @param idx
+     * @param <T>
+     */
+    public interface Handler<T> {
+        void handle(T node, long submitTime);
+
+        /**
+         * 节点下游节点全部执行完毕,可以考虑进行清理工作,默认为空实现
+         */
+        default void cleanup(T node) {
+        }
+
+    }
+
+    /**
+     * 非阻塞的节点处理方法, 适用于等待 RPC、磁盘等 IO 的节点.
+     * <p>
+     * handleAsync 返回后工作线程立即释放, 返回的 CompletionStage 完成时才推进后继节点入度并触发 cleanup,
+     * 这些工作在完成该 CompletionStage 的线程上进行, 就绪的后继仍提交到线程池执行.
+     * 作为 {@link Handler} 的子接口, 可直接传给现有的各执行入口; 以普通 Handler 调用时阻塞等待其完成
+     *
+     * @param <T>
      */
-    private void iter(Handler<T> handler, T node, int idx) {
-        long submitTime = System.currentTimeMillis();
-        executeBackend.execute(() -> {
+    public interface AsyncHandler<T> extends Handler<T> {
+        CompletionStage<?> handleAsync(T node, long submitTime);
+
+        @Override
+        default void handle(T node, long submitTime) {
+            CompletionStage<?> stage = handleAsync(node, submitTime);
+            if (stage == null) {
+                return;
+            }
             try {
-                if (running.get()) {
-                    handler.handle(node, submitTime);
-                    Optional.ofNullable(graph.getReverseAdjacencyListByIdx(idx)).ifPresent(
-                            list -> {
-                                for (Integer reverseAdjIdx : list) {
-                                    // 对反向邻接节点出度减 1, 若出度减到 0 则执行清理工作
-                                    if (outDegree.decrementAndGet(reverseAdjIdx) == 0) {
-                                        T reverseAdjNode = graph.getNodeByIdx(reverseAdjIdx);
-                                        handler.cleanup(reverseAdjNode);
-                                    }
-                                }
-                            }
-                    );
-                    latch.countDown();
-                    Optional.ofNullable(graph.getAdjacencyListByIdx(idx)).ifPresent(
-                            list -> {
-                                for (Integer adjIdx : list) {
-                                    // 对邻接节点的入度减 1, 若入度减到 0 则执行邻接节点任务
-                                    if (inDegree.decrementAndGet(adjIdx) == 0) {
-                                        T adjNode = graph.getNodeByIdx(adjIdx);
-                                        iter(handler, adjNode, adjIdx);
-                                    }
-                                }
-                            }
-                    );
-                }
-            } catch (Exception e) {
-                // 确保只 interrupt 一次主线程
-                if (running.compareAndSet(true, false)) {
-                    firstException = e;
-                    currentThread.interrupt();
-                }
-                log.error("ConcExecute execute node {} failed.", idx, e);
+                stage.toCompletableFuture().join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
             }
-        });
+        }
     }
 
     /**
-     * 通用的基于节点的处理方法,待实现
+     * 数据流模式的节点处理方法: 接收前置节点的输出, 返回自身输出.
+     * <p>
+     * inputs 的顺序与 {@link Graph#getReverseAdjacency()} 中该节点的前置节点顺序一致.
+     * 某节点的全部后继执行完毕后引擎即丢弃其输出引用, 峰值内存取决于执行前沿而非整个 DAG.
+     * 与 {@link Handler} 相互独立, 只能经 executeDataflow 等数据流入口执行
      *
      * @param <T>
+     * @param <R>
      */
-    public interface Handler<T> {
-        void handle(T node, long submitTime);
+    public interface DataflowHandler<T, R> {
+        R compute(T node, List<R> inputs);
 
         /**
-         * 节点下游节点全部执行完毕,可以考虑进行清理工作,默认为空实现
+         * 节点下游节点全部执行完毕, 其输出已被丢弃, 默认为空实现
          */
         default void cleanup(T node) {
         }
+    }
+
+    /**
+     * 批量执行的节点处理方法: 同一个 DAG 的 N 个实例在一个执行计划上同步推进, 每个节点只调用一次,
+     * 一次处理全部前置节点已完成且尚未失败的实例, 便于合并下游调用.
+     * <p>
+     * 单个实例可通过 {@link Batch#fail(int, Throwable)} 独立失败退出, 不影响其它实例; 方法本身抛出异常时本批全部实例失败
+     *
+     * @param <T>
+     * @param <R>
+     * @see ExecutionPlan#executeBatch(BatchHandler, List)
+     */
+    public interface BatchHandler<T, R> {
+        void computeBatch(T node, Batch<R> batch);
 
+        /**
+         * 节点下游节点全部执行完毕, 每批只调用一次, 默认为空实现
+         */
+        default void cleanup(T node) {
+        }
     }
 }
@@ -0,0 +1,1347 @@
+package com.github.dag.core;
+
+import com.github.dag.core.graph.Graph;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单次执行的状态, 由 {@link ExecutionPlan#acquire()} 获取, 执行完毕后通过 {@link #release()} 归还复用.
+ * <p>
+ * 引用计数 refs = 调用方持有的 1 + 已提交但尚未结束的任务数, 归零时才回收到池中,
+ * 避免失败提前返回后残留任务访问到已被下一次执行重置的状态
+ */
+@Slf4j
+public class ExecutionContext<T> {
+
+    private final ExecutionPlan<T> plan;
+
+    private final Graph<T> graph;
+
+    private final AtomicIntegerArray inDegree;
+
+    private final AtomicIntegerArray outDegree;
+
+    /**
+     * 高入度节点的条带计数, 计划中没有这类节点时为 null, 对应节点在 inDegree 中的槽位不再使用
+     */
+    private final StripedCounters stripedInDegree;
+
+    /**
+     * 高出度节点的条带计数, 计划中没有这类节点时为 null, 对应节点在 outDegree 中的槽位不再使用
+     */
+    private final StripedCounters stripedOutDegree;
+
+    /**
+     * 尚未执行完毕的节点数
+     */
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    private final AtomicInteger refs = new AtomicInteger();
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 引用归零、上下文回收后调用一次, 此时本次执行的全部任务都已结束
+     */
+    private volatile Runnable onRecycled;
+
+    /**
+     * 本次执行的完成信号, 每次执行新建, 执行结束后由调用方继续持有, 与上下文的回收复用无关
+     */
+    private volatile CompletableFuture<Object> completion;
+
+    /**
+     * 本次执行的处理方法, 三者按执行入口确定: 非数据流模式下 handler 非空, 其为 {@link ConcExecute.AsyncHandler} 时 asyncHandler 同时非空;
+     * 数据流模式下只有 dataflowHandler 非空
+     */
+    private ConcExecute.Handler<T> handler;
+
+    private ConcExecute.AsyncHandler<T> asyncHandler;
+
+    private ConcExecute.DataflowHandler<T, Object> dataflowHandler;
+
+    /**
+     * 数据流模式下各节点的输出, 最后一个消费者执行完毕后即置空释放, 首次以数据流模式执行时分配
+     */
+    private Object[] dataflowOutputs;
+
+    /**
+     * 本次执行写入节点输出的数组, 非数据流模式为 null, 增量执行时指向调用方持有的跨次缓存
+     */
+    private Object[] outputs;
+
+    /**
+     * 是否保留全部节点输出, 增量执行时为 true, 输出不随最后一个消费者完成而释放
+     */
+    private boolean retainOutputs;
+
+    /**
+     * 本次是否只执行部分节点, 参与的节点为 mark[i] == epoch 者, 其入度/出度只计参与的前置/后继
+     */
+    private boolean partial;
+
+    /**
+     * 部分执行的节点标记, 以递增的 epoch 区分各次执行, 无需每次清空; 首次部分执行时分配
+     */
+    private int[] mark;
+
+    private int epoch;
+
+    /**
+     * 部分执行时参与的节点下标, 兼作求闭包时的遍历队列, 与 mark 一同分配
+     */
+    private int[] subset;
+
+    /**
+     * 部分执行的节点数
+     */
+    private int subsetSize;
+
+    /**
+     * 记录本次执行进度的检查点, 未使用时为 null
+     */
+    private Checkpoint checkpoint;
+
+    /**
+     * 按目标执行时的目标节点下标, 执行结果只含这些节点的输出; 其余执行为 null
+     */
+    private int[] targets;
+
+    /**
+     * 数据流模式下各节点输入的只读视图, 读取本次执行的 outputs, 首次以数据流模式执行时分配, 跨多次执行复用
+     */
+    private Inputs[] inputs;
+
+    /**
+     * 每个节点一个预先分配的任务对象, 一次执行中每个节点至多提交一次, 因此可跨多次执行复用, 调度路径上不再分配
+     */
+    private final NodeTask[] tasks;
+
+    /**
+     * 关键路径优先调度时的就绪队列, 未开启时为 null
+     */
+    private final ReadyQueue readyQueue;
+
+    /**
+     * 从就绪队列中取出优先级最高节点执行的任务, 每个就绪节点对应提交一次
+     */
+    private final Runnable dispatchTask;
+
+    /**
+     * 执行过程监听器, 未注册时为 null, 各处均先判空再读取时钟
+     */
+    private final ExecutionListener listener;
+
+    /**
+     * 节点所属资源类别的舱壁, 以节点下标索引, 未配置任何舱壁时为 null, 未路由的节点为 null
+     */
+    private final ResourceRoute[] routes;
+
+    /**
+     * 执行计划的内存预算, 未配置时为 null
+     */
+    private final MemoryBudget memoryBudget;
+
+    /**
+     * 本次执行已预留、尚未归还的字节数, 上下文回收时归还剩余部分
+     */
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    /**
+     * 执行计划的推测执行配置, 未开启时为 null
+     */
+    private final Speculation speculation;
+
+    /**
+     * 执行计划的各节点重试策略, 未配置时为 null
+     */
+    private final RetryPolicy[] retryPolicies;
+
+    /**
+     * 本次执行中各节点已失败的次数, 未配置重试时为 null
+     */
+    private final int[] attempts;
+
+    ExecutionContext(ExecutionPlan<T> plan) {
+        this.plan = plan;
+        this.graph = plan.getGraph();
+        this.inDegree = new AtomicIntegerArray(graph.getNodes().length);
+        this.outDegree = new AtomicIntegerArray(graph.getNodes().length);
+        this.stripedInDegree = plan.getInDegreeLayout() == null ? null : new StripedCounters(plan.getInDegreeLayout());
+        this.stripedOutDegree = plan.getOutDegreeLayout() == null ? null : new StripedCounters(plan.getOutDegreeLayout());
+        this.readyQueue = plan.isPriorityScheduling() ? new ReadyQueue(graph.getBottomLevel()) : null;
+        this.listener = plan.getListener();
+        this.routes = plan.getRoutes();
+        this.memoryBudget = plan.getMemoryBudget();
+        this.speculation = plan.getSpeculation();
+        this.retryPolicies = plan.getRetryPolicies();
+        this.attempts = retryPolicies == null ? null : new int[graph.getNodes().length];
+        this.tasks = new NodeTask[graph.getNodes().length];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new NodeTask(this, i);
+        }
+        this.dispatchTask = () -> {
+            try {
+                int idx = readyQueue.pop();
+                if (idx >= 0) {
+                    run(idx, readyQueue.submitTime(idx));
+                }
+            } finally {
+                unref();
+            }
+        };
+    }
+
+    /**
+     * 以 O(节点数) 恢复初始状态, 不分配新对象
+     */
+    void reset() {
+        refs.set(1);
+        running.set(true);
+        completion = null;
+        handler = null;
+        asyncHandler = null;
+        dataflowHandler = null;
+        if (outputs == dataflowOutputs && outputs != null) {
+            // 只清理上一次执行写过的槽位, 使按目标执行的开销与图的规模无关
+            if (partial) {
+                for (int s = 0; s < subsetSize; s++) {
+                    dataflowOutputs[subset[s]] = null;
+                }
+            } else {
+                Arrays.fill(dataflowOutputs, null);
+            }
+        }
+        outputs = null;
+        retainOutputs = false;
+        partial = false;
+        targets = null;
+        checkpoint = null;
+        if (readyQueue != null) {
+            readyQueue.clear();
+        }
+    }
+
+    /**
+     * 异步执行, 返回的 CompletableFuture 在全部节点完成时正常完成, 在首个节点失败时以该异常完成.
+     * 其依赖动作默认在完成它的工作线程上执行, 耗时的后续处理请使用 *Async 变体
+     *
+     * @param handler
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Void> executeAsync(ConcExecute.Handler<T> handler) {
+        use(handler);
+        return (CompletableFuture) start();
+    }
+
+    /**
+     * 以数据流模式异步执行: 节点输出按反向邻接表顺序传给后继, 全部后继执行完毕后即释放
+     *
+     * @param handler
+     * @param <R>
+     * @return 汇点(出度为 0 的节点)到其输出的映射
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<Map<T, R>> executeDataflow(ConcExecute.DataflowHandler<T, R> handler) {
+        if (dataflowOutputs == null) {
+            dataflowOutputs = new Object[graph.getNodes().length];
+        }
+        prepareInputs();
+        this.outputs = dataflowOutputs;
+        use(handler);
+        return (CompletableFuture) start();
+    }
+
+    /**
+     * 按目标执行: 只执行目标节点及其全部祖先, 与目标无关的分支不会执行
+     *
+     * @param handler
+     * @param targets 目标节点下标
+     * @return 非数据流模式下正常完成时结果为 null, 数据流模式下为目标节点到其输出的映射
+     */
+    CompletableFuture<Object> executeGoal(ConcExecute.Handler<T> handler, int[] targets) {
+        use(handler);
+        this.targets = targets;
+        return startPartial(closure(targets, graph.getReverseAdjacencyOffset(), graph.getReverseAdjacency()));
+    }
+
+    /**
+     * 以数据流模式按目标执行, 见 {@link #executeGoal(ConcExecute.Handler, int[])}
+     *
+     * @param handler
+     * @param targets 目标节点下标
+     * @return 目标节点到其输出的映射
+     */
+    CompletableFuture<Object> executeGoal(ConcExecute.DataflowHandler<T, ?> handler, int[] targets) {
+        if (dataflowOutputs == null) {
+            dataflowOutputs = new Object[graph.getNodes().length];
+        }
+        prepareInputs();
+        this.outputs = dataflowOutputs;
+        use(handler);
+        this.targets = targets;
+        return startPartial(closure(targets, graph.getReverseAdjacencyOffset(), graph.getReverseAdjacency()));
+    }
+
+    /**
+     * 增量执行: 只执行脏节点及其全部后代, 其余节点视为已完成, 其输出直接取自上一次执行留在 cache 中的结果
+     *
+     * @param handler
+     * @param cache   跨次保留的节点输出, 本次执行的节点会覆盖其中对应的输出
+     * @param dirty   脏节点下标, 为 null 时执行全部节点
+     * @return 汇点(出度为 0 的节点)到其输出的映射
+     */
+    CompletableFuture<Object> executeIncremental(ConcExecute.DataflowHandler<T, ?> handler, Object[] cache, int[] dirty) {
+        prepareInputs();
+        this.outputs = cache;
+        this.retainOutputs = true;
+        use(handler);
+        if (dirty == null) {
+            return start();
+        }
+        return startPartial(closure(dirty, graph.getAdjacencyOffset(), graph.getAdjacency()));
+    }
+
+    /**
+     * 从检查点恢复执行: 已完成的节点视为已满足, 只执行其余节点, 每个节点完成后记入检查点
+     *
+     * @param handler
+     * @param checkpoint
+     * @return 非数据流模式下正常完成时结果为 null, 数据流模式下为汇点到其输出的映射, 已完成的汇点取恢复出的输出
+     */
+    CompletableFuture<Object> executeCheckpointed(ConcExecute.Handler<T> handler, Checkpoint checkpoint) {
+        use(handler);
+        this.checkpoint = checkpoint;
+        return startPartial(select(checkpoint.remaining()));
+    }
+
+    /**
+     * 以数据流模式从检查点恢复执行, 见 {@link #executeCheckpointed(ConcExecute.Handler, Checkpoint)}
+     *
+     * @param handler
+     * @param checkpoint 须配置 {@link Checkpoint.OutputCodec}
+     * @return 汇点到其输出的映射, 已完成的汇点取恢复出的输出
+     */
+    CompletableFuture<Object> executeCheckpointed(ConcExecute.DataflowHandler<T, ?> handler, Checkpoint checkpoint) {
+        prepareInputs();
+        // 恢复出的输出不在本次执行的子集内, 使用独立的数组, 避免残留到下一次执行
+        this.outputs = new Object[graph.getNodes().length];
+        checkpoint.restore(outputs);
+        use(handler);
+        this.checkpoint = checkpoint;
+        return startPartial(select(checkpoint.remaining()));
+    }
+
+    /**
+     * 确定本次执行的处理方法, 执行过程中按字段分派, 不再判断处理方法的类型
+     *
+     * @param handler
+     */
+    private void use(ConcExecute.Handler<T> handler) {
+        this.handler = handler;
+        if (handler instanceof ConcExecute.AsyncHandler) {
+            this.asyncHandler = (ConcExecute.AsyncHandler<T>) handler;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void use(ConcExecute.DataflowHandler<T, ?> handler) {
+        this.dataflowHandler = (ConcExecute.DataflowHandler<T, Object>) handler;
+    }
+
+    private void prepareInputs() {
+        if (inputs == null) {
+            int n = graph.getNodes().length;
+            Inputs[] inputs = new Inputs[n];
+            for (int i = 0; i < n; i++) {
+                inputs[i] = new Inputs(this, i);
+            }
+            this.inputs = inputs;
+        }
+    }
+
+    private CompletableFuture<Object> start() {
+        CompletableFuture<Object> completion = begin();
+        if (graph.getNodes().length == 0) {
+            finish();
+            return completion;
+        }
+        int[] initInDegree = graph.getInDegree();
+        int[] initOutDegree = graph.getOutDegree();
+        // 后续向线程池提交任务时已建立 happens-before, lazySet 即可
+        for (int i = 0; i < initInDegree.length; i++) {
+            inDegree.lazySet(i, initInDegree[i]);
+            outDegree.lazySet(i, initOutDegree[i]);
+        }
+        if (stripedInDegree != null) {
+            stripedInDegree.reset();
+        }
+        if (stripedOutDegree != null) {
+            stripedOutDegree.reset();
+        }
+        if (attempts != null) {
+            Arrays.fill(attempts, 0);
+        }
+        remaining.set(initInDegree.length);
+        for (int idx : graph.getZeroDegreeIdx()) {
+            iter(idx);
+        }
+        return completion;
+    }
+
+    /**
+     * 只执行 subset[0, size) 中的节点, 入度/出度只计子集内的前置/后继, 以 O(子集及其邻边) 完成准备, 与图的规模无关.
+     * 部分执行不使用条带计数
+     *
+     * @param size
+     * @return
+     */
+    private CompletableFuture<Object> startPartial(int size) {
+        CompletableFuture<Object> completion = begin();
+        partial = true;
+        subsetSize = size;
+        if (size == 0) {
+            finish();
+            return completion;
+        }
+        int[] adjacency = graph.getAdjacency();
+        int[] reverseAdjacency = graph.getReverseAdjacency();
+        // 入度为 0 的节点交换到子集前部, 须在提交任何节点之前全部找出, 否则会与执行中的入度递减竞争
+        int roots = 0;
+        for (int s = 0; s < size; s++) {
+            int idx = subset[s];
+            int in = 0;
+            for (int k = graph.reverseAdjacencyBegin(idx), end = graph.reverseAdjacencyEnd(idx); k < end; k++) {
+                if (mark[reverseAdjacency[k]] == epoch) {
+                    in++;
+                }
+            }
+            int out = 0;
+            for (int k = graph.adjacencyBegin(idx), end = graph.adjacencyEnd(idx); k < end; k++) {
+                if (mark[adjacency[k]] == epoch) {
+                    out++;
+                }
+            }
+            inDegree.lazySet(idx, in);
+            outDegree.lazySet(idx, out);
+            if (attempts != null) {
+                attempts[idx] = 0;
+            }
+            if (in == 0) {
+                subset[s] = subset[roots];
+                subset[roots++] = idx;
+            }
+        }
+        if (targets != null) {
+            // 目标节点多计一个虚拟消费者, 即使是其它目标的祖先, 输出也不会被释放
+            for (int idx : targets) {
+                outDegree.lazySet(idx, outDegree.get(idx) + 1);
+            }
+        }
+        remaining.set(size);
+        for (int s = 0; s < roots; s++) {
+            iter(subset[s]);
+        }
+        return completion;
+    }
+
+    private CompletableFuture<Object> begin() {
+        CompletableFuture<Object> completion = new CompletableFuture<>();
+        this.completion = completion;
+        if (listener != null) {
+            listener.onExecutionStarted(System.nanoTime());
+        }
+        return completion;
+    }
+
+    /**
+     * 从 seeds 出发沿 neighbour 求闭包, 标记为本次执行的参与节点并依次写入 subset
+     *
+     * @param seeds
+     * @param offset    CSR 偏移
+     * @param neighbour 求后代传邻接表, 求祖先传反向邻接表
+     * @return 闭包大小
+     */
+    private int closure(int[] seeds, int[] offset, int[] neighbour) {
+        int size = select(seeds);
+        for (int head = 0; head < size; head++) {
+            int idx = subset[head];
+            for (int k = offset[idx], end = offset[idx + 1]; k < end; k++) {
+                if (mark[neighbour[k]] != epoch) {
+                    mark[neighbour[k]] = epoch;
+                    subset[size++] = neighbour[k];
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 把 nodes 标记为本次执行的参与节点并依次写入 subset
+     *
+     * @param nodes
+     * @return 去重后的节点数
+     */
+    private int select(int[] nodes) {
+        if (mark == null) {
+            mark = new int[graph.getNodes().length];
+            subset = new int[graph.getNodes().length];
+        }
+        if (++epoch == 0) {
+            Arrays.fill(mark, 0);
+            epoch = 1;
+        }
+        int size = 0;
+        for (int idx : nodes) {
+            if (mark[idx] != epoch) {
+                mark[idx] = epoch;
+                subset[size++] = idx;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 等待执行结束(全部节点完成或首个节点失败), 不依赖线程中断
+     *
+     * @return
+     */
+    public Optional<Exception> await() {
+        return await(completion);
+    }
+
+    static Optional<Exception> await(CompletableFuture<?> completion) {
+        try {
+            completion.join();
+            return Optional.empty();
+        } catch (CompletionException | CancellationException e) {
+            return Optional.of(unwrap(e));
+        }
+    }
+
+    /**
+     * 调用方不再使用该上下文, 在途任务结束后归还到执行计划中复用
+     */
+    public void release() {
+        unref();
+    }
+
+    /**
+     * 本次执行的全部在途任务结束、上下文回收后调用 callback. 执行失败时返回的 future 先于此完成,
+     * 需要等失败执行的残留任务结束(例如与下一次执行共享输出数组)时使用. 须在 {@link #release()} 之前设置
+     *
+     * @param callback
+     */
+    void onRecycled(Runnable callback) {
+        this.onRecycled = callback;
+    }
+
+    /**
+     * 递归执行
+     *
+     * @param idx
+     */
+    private void iter(int idx) {
+        if (memoryBudget != null && !reserve(idx)) {
+            return;
+        }
+        dispatch(idx);
+    }
+
+    /**
+     * 预留节点输出的内存, 预算不足时节点在预算的等待队列中排队, 期间持有一个引用
+     *
+     * @param idx
+     * @return 是否立即准入
+     */
+    private boolean reserve(int idx) {
+        long bytes = graph.getOutputSizeByIdx(idx);
+        refs.incrementAndGet();
+        if (memoryBudget.reserve(this, idx, bytes, freeable(idx))) {
+            reservedBytes.addAndGet(bytes);
+            unref();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 排队的节点获准执行
+     *
+     * @param idx
+     * @param bytes 已为其预留的字节数
+     */
+    void admitted(int idx, long bytes) {
+        reservedBytes.addAndGet(bytes);
+        try {
+            dispatch(idx);
+        } finally {
+            unref();
+        }
+    }
+
+    /**
+     * 节点执行后可释放的字节数: 以该节点为最后一个消费者的前置节点的输出, 减去该节点自身的输出
+     *
+     * @param idx
+     * @return
+     */
+    private long freeable(int idx) {
+        long freeable = -graph.getOutputSizeByIdx(idx);
+        int[] reverseAdjacency = graph.getReverseAdjacency();
+        for (int k = graph.reverseAdjacencyBegin(idx), end = graph.reverseAdjacencyEnd(idx); k < end; k++) {
+            int pre = reverseAdjacency[k];
+            if (partial && mark[pre] != epoch) {
+                continue;
+            }
+            // 条带计数的剩余出度无法直接读取, 按不可释放估计
+            boolean striped = !partial && stripedOutDegree != null && stripedOutDegree.isStriped(pre);
+            if (!striped && outDegree.get(pre) == 1) {
+                freeable += graph.getOutputSizeByIdx(pre);
+            }
+        }
+        return freeable;
+    }
+
+    private void releaseMemory(int idx) {
+        long bytes = graph.getOutputSizeByIdx(idx);
+        reservedBytes.addAndGet(-bytes);
+        memoryBudget.release(bytes);
+    }
+
+    private void dispatch(int idx) {
+        long submitTime = System.currentTimeMillis();
+        if (listener != null) {
+            listener.onNodeSubmitted(idx, System.nanoTime());
+        }
+        ResourceRoute route = routes == null ? null : routes[idx];
+        // 路由到舱壁的节点不经过就绪优先队列, 直接进入其类别的线程池或等待队列
+        if (readyQueue != null && route == null) {
+            readyQueue.push(idx, submitTime);
+            submit(idx, dispatchTask);
+            return;
+        }
+        NodeTask task = tasks[idx];
+        task.submitTime = submitTime;
+        if (route != null) {
+            refs.incrementAndGet();
+            try {
+                route.submit(task);
+            } catch (RejectedExecutionException e) {
+                unref();
+                finishAdmission();
+                fail(idx, e);
+            }
+            return;
+        }
+        submit(idx, task);
+    }
+
+    private void submit(int idx, Runnable task) {
+        refs.incrementAndGet();
+        try {
+            plan.getExecuteBackend().execute(task);
+        } catch (RejectedExecutionException e) {
+            unref();
+            finishAdmission();
+            fail(idx, e);
+        }
+    }
+
+    private void run(int idx, long submitTime) {
+        int inlineDepth = plan.getInlineDepth();
+        int depth = 0;
+        int current = idx;
+        int next = runNode(idx, submitTime, inlineDepth > 0);
+        // 内联续跑: 在当前线程上循环执行就绪的后继, 超过深度上限后交还线程池
+        while (next >= 0) {
+            if (depth++ >= inlineDepth || !acquireInline(current, next)) {
+                iter(next);
+                return;
+            }
+            if (listener != null) {
+                listener.onNodeSubmitted(next, System.nanoTime());
+            }
+            current = next;
+            next = runNode(next, System.currentTimeMillis(), true);
+        }
+    }
+
+    /**
+     * 后继与当前节点使用同一个线程池, 且能立即获得其舱壁许可时才可内联
+     *
+     * @param current
+     * @param next
+     * @return
+     */
+    private boolean acquireInline(int current, int next) {
+        if (memoryBudget != null) {
+            long bytes = graph.getOutputSizeByIdx(next);
+            if (!memoryBudget.tryReserve(bytes)) {
+                return false;
+            }
+            reservedBytes.addAndGet(bytes);
+        }
+        if (routes == null) {
+            return true;
+        }
+        ResourceRoute from = routes[current];
+        ResourceRoute to = routes[next];
+        ExecutorService fromPool = from == null ? plan.getExecuteBackend() : from.getPool();
+        ExecutorService toPool = to == null ? plan.getExecuteBackend() : to.getPool();
+        if (fromPool == toPool && (to == null || to.tryAcquire())) {
+            return true;
+        }
+        if (memoryBudget != null) {
+            // 交还线程池后由 iter 重新预留
+            finishAdmission();
+            releaseMemory(next);
+        }
+        return false;
+    }
+
+    /**
+     * 节点执行结束, 归还舱壁许可与内存预算的准入名额, 其输出的预留保留到 cleanup
+     *
+     * @param idx
+     */
+    private void releaseNode(int idx) {
+        if (routes != null && routes[idx] != null) {
+            routes[idx].release();
+        }
+        finishAdmission();
+    }
+
+    private void finishAdmission() {
+        if (memoryBudget != null) {
+            memoryBudget.finished();
+        }
+    }
+
+    /**
+     * 执行单个节点并推进后继节点的入度
+     *
+     * @param idx
+     * @param submitTime
+     * @param inline     是否保留一个就绪后继(开启优先调度时取 bottom level 最大者)由当前线程继续执行
+     * @return 保留下来内联执行的后继节点下标, 没有则返回 -1
+     */
+    private int runNode(int idx, long submitTime, boolean inline) {
+        // 异步节点在 CompletionStage 完成时才归还舱壁许可
+        boolean pending = false;
+        try {
+            if (running.get()) {
+                if (listener != null) {
+                    listener.onNodeStarted(idx, System.nanoTime());
+                }
+                if (speculation != null && speculation.isSpeculative(idx)) {
+                    // 胜出的执行可能在其它线程上完成, 不内联后继
+                    pending = new SpeculativeRun(this, idx, submitTime).start();
+                    return -1;
+                }
+                if (asyncHandler != null) {
+                    pending = runAsync(idx, submitTime);
+                    return -1;
+                }
+                Object output;
+                try {
+                    output = invoke(idx, submitTime);
+                } catch (Exception e) {
+                    if (retry(idx, e)) {
+                        return -1;
+                    }
+                    throw e;
+                }
+                if (outputs != null) {
+                    outputs[idx] = output;
+                }
+                if (listener != null) {
+                    listener.onNodeFinished(idx, System.nanoTime());
+                }
+                return complete(idx, inline);
+            }
+        } catch (Exception e) {
+            fail(idx, e);
+        } finally {
+            if (!pending) {
+                releaseNode(idx);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 同步调用处理方法
+     *
+     * @param idx
+     * @param submitTime
+     * @return 数据流模式下为节点输出, 否则为 null
+     */
+    private Object invoke(int idx, long submitTime) {
+        if (dataflowHandler != null) {
+            return dataflowHandler.compute(graph.getNodeByIdx(idx), inputs[idx]);
+        }
+        handler.handle(graph.getNodeByIdx(idx), submitTime);
+        return null;
+    }
+
+    /**
+     * 按节点的重试策略在退避后重新执行. 节点失败即不再占用输出的内存预留, 重新执行时经 {@link #iter(int)} 重新预留;
+     * 等待期间持有一个引用, 执行已失败时不再重新执行
+     *
+     * @param idx
+     * @param e
+     * @return 是否已安排重试, 否则应使执行失败
+     */
+    private boolean retry(int idx, Exception e) {
+        RetryPolicy policy = retryPolicies == null ? null : retryPolicies[idx];
+        if (policy == null || !running.get()) {
+            return false;
+        }
+        // 同一节点同时只有一次执行失败, 前后两次失败之间经线程池或定时器的提交建立 happens-before
+        int attempt = ++attempts[idx];
+        if (!policy.shouldRetry(attempt, e)) {
+            return false;
+        }
+        long delay = policy.delayNanos(attempt);
+        if (listener != null) {
+            listener.onNodeRetry(idx, attempt, e, delay, System.nanoTime());
+        }
+        log.warn("ConcExecute node {} failed on attempt {}, retry in {} ms.", idx, attempt, TimeUnit.NANOSECONDS.toMillis(delay), e);
+        if (memoryBudget != null) {
+            releaseMemory(idx);
+        }
+        refs.incrementAndGet();
+        try {
+            plan.getRetryTimer().schedule(() -> {
+                try {
+                    if (running.get()) {
+                        iter(idx);
+                    }
+                } finally {
+                    unref();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException rejected) {
+            unref();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 推测执行中先完成的一次执行胜出, 推进后继
+     *
+     * @param idx
+     * @param output
+     */
+    private void speculationSucceeded(int idx, Object output) {
+        try {
+            if (!running.get()) {
+                return;
+            }
+            if (outputs != null) {
+                outputs[idx] = output;
+            }
+            if (listener != null) {
+                listener.onNodeFinished(idx, System.nanoTime());
+            }
+            complete(idx, false);
+        } catch (Exception e) {
+            fail(idx, e);
+        }
+    }
+
+    /**
+     * 异步节点: 不占用工作线程等待, CompletionStage 完成时再推进后继, 期间持有一个引用防止上下文被回收
+     *
+     * @param idx
+     * @param submitTime
+     * @return 是否等待 CompletionStage 完成, handleAsync 返回 null 时视为同步完成
+     */
+    private boolean runAsync(int idx, long submitTime) {
+        CompletionStage<?> stage;
+        try {
+            stage = asyncHandler.handleAsync(graph.getNodeByIdx(idx), submitTime);
+        } catch (Exception e) {
+            if (retry(idx, e)) {
+                return false;
+            }
+            throw e;
+        }
+        if (stage == null) {
+            if (listener != null) {
+                listener.onNodeFinished(idx, System.nanoTime());
+            }
+            complete(idx, false);
+            return false;
+        }
+        refs.incrementAndGet();
+        stage.whenComplete((result, t) -> {
+            try {
+                if (t != null) {
+                    Exception e = unwrap(t);
+                    if (!retry(idx, e)) {
+                        fail(idx, e);
+                    }
+                } else if (running.get()) {
+                    if (listener != null) {
+                        listener.onNodeFinished(idx, System.nanoTime());
+                    }
+                    complete(idx, false);
+                }
+            } catch (Exception e) {
+                fail(idx, e);
+            } finally {
+                releaseNode(idx);
+                unref();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 节点执行完毕: 前置节点出度减 1 并清理, 后继节点入度减 1 并调度
+     *
+     * @param idx
+     * @param inline
+     * @return 保留下来内联执行的后继节点下标, 没有则返回 -1
+     */
+    private int complete(int idx, boolean inline) {
+        if (checkpoint != null) {
+            checkpoint.completed(idx, outputs);
+        }
+        int[] reverseAdjacency = graph.getReverseAdjacency();
+        for (int k = graph.reverseAdjacencyBegin(idx), end = graph.reverseAdjacencyEnd(idx); k < end; k++) {
+            int reverseAdjIdx = reverseAdjacency[k];
+            if (partial && mark[reverseAdjIdx] != epoch) {
+                continue;
+            }
+            // 对反向邻接节点出度减 1, 若出度减到 0 则执行清理工作
+            if (!partial && stripedOutDegree != null && stripedOutDegree.isStriped(reverseAdjIdx)
+                    ? stripedOutDegree.decrement(reverseAdjIdx, idx) : outDegree.decrementAndGet(reverseAdjIdx) == 0) {
+                if (outputs != null && !retainOutputs) {
+                    outputs[reverseAdjIdx] = null;
+                }
+                if (dataflowHandler != null) {
+                    dataflowHandler.cleanup(graph.getNodeByIdx(reverseAdjIdx));
+                } else {
+                    handler.cleanup(graph.getNodeByIdx(reverseAdjIdx));
+                }
+                if (memoryBudget != null) {
+                    releaseMemory(reverseAdjIdx);
+                }
+                if (listener != null) {
+                    listener.onNodeCleanedUp(reverseAdjIdx, System.nanoTime());
+                }
+            }
+        }
+        if (remaining.decrementAndGet() == 0) {
+            finish();
+            return -1;
+        }
+        int next = -1;
+        int[] adjacency = graph.getAdjacency();
+        long[] bottomLevel = graph.getBottomLevel();
+        for (int k = graph.adjacencyBegin(idx), end = graph.adjacencyEnd(idx); k < end; k++) {
+            int adjIdx = adjacency[k];
+            if (partial && mark[adjIdx] != epoch) {
+                continue;
+            }
+            // 对邻接节点的入度减 1, 若入度减到 0 则执行邻接节点任务
+            if (!partial && stripedInDegree != null && stripedInDegree.isStriped(adjIdx)
+                    ? stripedInDegree.decrement(adjIdx, idx) : inDegree.decrementAndGet(adjIdx) == 0) {
+                if (inline && next < 0) {
+                    next = adjIdx;
+                } else if (inline && readyQueue != null && bottomLevel[adjIdx] > bottomLevel[next]) {
+                    iter(next);
+                    next = adjIdx;
+                } else {
+                    iter(adjIdx);
+                }
+            }
+        }
+        return next;
+    }
+
+    private static Exception unwrap(Throwable t) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t instanceof Exception ? (Exception) t : new ExecutionException(t);
+    }
+
+    private void fail(int idx, Exception e) {
+        if (listener != null) {
+            listener.onNodeFailed(idx, e, System.nanoTime());
+        }
+        // 确保只记录首个异常
+        if (running.compareAndSet(true, false)) {
+            if (checkpoint != null) {
+                // 尽量保存已完成的进度, 在途节点随后完成时仍会记入检查点, 随下一次提交落盘
+                try {
+                    checkpoint.flush();
+                } catch (RuntimeException flushFailure) {
+                    log.error("ConcExecute flush checkpoint failed.", flushFailure);
+                }
+            }
+            if (listener != null) {
+                listener.onExecutionFinished(e, System.nanoTime());
+            }
+            completion.completeExceptionally(e);
+        }
+        log.error("ConcExecute execute node {} failed.", idx, e);
+    }
+
+    private void finish() {
+        if (checkpoint != null) {
+            checkpoint.flush();
+        }
+        if (listener != null) {
+            listener.onExecutionFinished(null, System.nanoTime());
+        }
+        completion.complete(outputs != null ? resultOutputs() : null);
+    }
+
+    private Map<T, Object> resultOutputs() {
+        Map<T, Object> result = new HashMap<>();
+        if (targets != null) {
+            for (int idx : targets) {
+                result.put(graph.getNodeByIdx(idx), outputs[idx]);
+            }
+            return result;
+        }
+        int[] outDegree = graph.getOutDegree();
+        for (int i = 0; i < outDegree.length; i++) {
+            if (outDegree[i] == 0) {
+                result.put(graph.getNodeByIdx(i), outputs[i]);
+            }
+        }
+        return result;
+    }
+
+    private void unref() {
+        if (refs.decrementAndGet() == 0) {
+            if (memoryBudget != null) {
+                // 汇点及执行中断时未清理的节点
+                long held = reservedBytes.getAndSet(0);
+                if (held != 0) {
+                    memoryBudget.release(held);
+                }
+            }
+            Runnable callback = onRecycled;
+            onRecycled = null;
+            plan.recycle(this);
+            if (callback != null) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * 节点任务, submitTime 在提交前写入, 由线程池的提交动作保证对执行线程可见
+     */
+    static final class NodeTask implements Runnable {
+
+        private final ExecutionContext<?> context;
+
+        private final int idx;
+
+        private long submitTime;
+
+        NodeTask(ExecutionContext<?> context, int idx) {
+            this.context = context;
+            this.idx = idx;
+        }
+
+        @Override
+        public void run() {
+            try {
+                context.run(idx, submitTime);
+            } finally {
+                context.unref();
+            }
+        }
+
+        /**
+         * 舱壁转交许可时被线程池拒绝, 节点不会再执行
+         *
+         * @param e
+         */
+        void rejected(RejectedExecutionException e) {
+            try {
+                context.finishAdmission();
+                context.fail(idx, e);
+            } finally {
+                context.unref();
+            }
+        }
+    }
+
+    /**
+     * 幂等节点的一次推测执行: 原始执行(attempt 0)运行超过历史耗时阈值时, 由定时器在线程池上启动一个副本(attempt 1).
+     * 先成功完成者胜出, 只有胜出者推进后继, 保证后继入度只递减一次; 随后取消另一方: 同步执行中断其线程, 异步执行取消其 CompletableFuture.
+     * 一方失败而另一方仍在运行时忽略该失败, 两方都失败才使执行失败.
+     * <p>
+     * 副本在节点所属资源类别的线程池上执行并占用该类别的一个舱壁许可, 许可已用满时不排队、放弃本次推测;
+     * 未路由的节点的副本提交到执行计划的线程池. 副本不计入内存预算, 两次执行只保留胜出者的输出
+     */
+    private static final class SpeculativeRun {
+
+        private final ExecutionContext<?> context;
+
+        private final int idx;
+
+        private final long submitTime;
+
+        /**
+         * 是否已有结果(胜出或最终失败)
+         */
+        private final AtomicBoolean decided = new AtomicBoolean();
+
+        /**
+         * 尚未结束的执行数
+         */
+        private final AtomicInteger live = new AtomicInteger(1);
+
+        private final long[] startNanos = new long[2];
+
+        /**
+         * 正在执行同步处理方法的线程, 由 this 保护
+         */
+        private final Thread[] runners = new Thread[2];
+
+        private final boolean[] interrupted = new boolean[2];
+
+        private final CompletableFuture<?>[] stages = new CompletableFuture[2];
+
+        private volatile ScheduledFuture<?> timer;
+
+        SpeculativeRun(ExecutionContext<?> context, int idx, long submitTime) {
+            this.context = context;
+            this.idx = idx;
+            this.submitTime = submitTime;
+        }
+
+        /**
+         * 在当前线程上运行原始执行
+         *
+         * @return 原始执行是否为尚未完成的异步执行, 此时在其完成时归还节点占用的许可
+         */
+        boolean start() {
+            long threshold = context.speculation.threshold(idx);
+            if (threshold >= 0) {
+                timer = context.speculation.getTimer().schedule(this::launch, threshold, TimeUnit.NANOSECONDS);
+            }
+            return attempt(0);
+        }
+
+        /**
+         * 启动副本. 路由到舱壁的节点, 副本同样在其类别的线程池上执行并占用一个许可; 许可已用满时不排队, 放弃本次推测
+         */
+        private void launch() {
+            if (decided.get() || !context.running.get()) {
+                return;
+            }
+            ResourceRoute route = route();
+            if (route != null && !route.tryAcquire()) {
+                return;
+            }
+            ExecutorService pool = route == null ? context.plan.getExecuteBackend() : route.getPool();
+            live.incrementAndGet();
+            context.refs.incrementAndGet();
+            try {
+                pool.execute(() -> {
+                    boolean pending = false;
+                    try {
+                        pending = attempt(1);
+                    } finally {
+                        if (!pending) {
+                            release(1);
+                        }
+                        context.unref();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                live.decrementAndGet();
+                release(1);
+                context.unref();
+            }
+        }
+
+        private ResourceRoute route() {
+            return context.routes == null ? null : context.routes[idx];
+        }
+
+        /**
+         * 一次执行结束: 原始执行归还节点占用的许可与准入名额, 副本只归还其舱壁许可
+         *
+         * @param a
+         */
+        private void release(int a) {
+            if (a == 0) {
+                context.releaseNode(idx);
+            } else if (route() != null) {
+                route().release();
+            }
+        }
+
+        /**
+         * @param a
+         * @return 是否为尚未完成的异步执行
+         */
+        private boolean attempt(int a) {
+            if (decided.get() || !context.running.get()) {
+                finish(a, null, null, true);
+                return false;
+            }
+            startNanos[a] = System.nanoTime();
+            if (context.asyncHandler != null) {
+                return attemptAsync(a);
+            }
+            synchronized (this) {
+                runners[a] = Thread.currentThread();
+            }
+            Object output = null;
+            Exception error = null;
+            try {
+                output = context.invoke(idx, submitTime);
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                synchronized (this) {
+                    runners[a] = null;
+                    if (interrupted[a]) {
+                        // 清除取消时设置的中断标记, 避免影响线程池中的后续任务
+                        Thread.interrupted();
+                    }
+                }
+            }
+            finish(a, output, error, false);
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean attemptAsync(int a) {
+            CompletionStage<?> stage;
+            try {
+                stage = ((ConcExecute.AsyncHandler<Object>) context.asyncHandler).handleAsync(context.graph.getNodeByIdx(idx), submitTime);
+            } catch (Exception e) {
+                finish(a, null, e, false);
+                return false;
+            }
+            if (stage == null) {
+                finish(a, null, null, false);
+                return false;
+            }
+            CompletableFuture<?> future = stage.toCompletableFuture();
+            synchronized (this) {
+                stages[a] = future;
+            }
+            if (decided.get()) {
+                future.cancel(true);
+            }
+            context.refs.incrementAndGet();
+            future.whenComplete((result, t) -> {
+                try {
+                    finish(a, null, t == null ? null : unwrap(t), false);
+                } finally {
+                    release(a);
+                    context.unref();
+                }
+            });
+            return true;
+        }
+
+        /**
+         * @param a
+         * @param output
+         * @param error
+         * @param skipped 执行未运行(已有结果或执行已失败)
+         */
+        private void finish(int a, Object output, Exception error, boolean skipped) {
+            if (!skipped && error == null) {
+                if (decided.compareAndSet(false, true)) {
+                    cancel(1 - a);
+                    context.speculation.record(idx, System.nanoTime() - startNanos[a]);
+                    context.speculationSucceeded(idx, output);
+                }
+                return;
+            }
+            if (live.decrementAndGet() == 0 && !skipped && decided.compareAndSet(false, true)) {
+                cancel(1 - a);
+                if (!context.retry(idx, error)) {
+                    context.fail(idx, error);
+                }
+            }
+        }
+
+        private void cancel(int a) {
+            ScheduledFuture<?> timer = this.timer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            CompletableFuture<?> future;
+            synchronized (this) {
+                if (runners[a] != null) {
+                    interrupted[a] = true;
+                    runners[a].interrupt();
+                }
+                future = stages[a];
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 节点输入的只读视图, 第 i 个元素为反向邻接表中第 i 个前置节点的输出
+     */
+    private static final class Inputs extends AbstractList<Object> {
+
+        private final ExecutionContext<?> context;
+
+        private final int begin;
+
+        private final int size;
+
+        Inputs(ExecutionContext<?> context, int idx) {
+            this.context = context;
+            this.begin = context.graph.reverseAdjacencyBegin(idx);
+            this.size = context.graph.reverseAdjacencyEnd(idx) - begin;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return context.outputs[context.graph.getReverseAdjacency()[begin + index]];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.dag.core;
+
+/**
+ * 执行过程监听 SPI, 通过 {@link ExecutionPlan.Builder#listener(ExecutionListener)} 注册.
+ * <p>
+ * 所有事件均携带 {@link System#nanoTime()} 时间戳, 节点以图中下标标识, 可通过 {@code Graph#getNodeByIdx} 取得节点.
+ * 回调在执行线程上同步调用, 实现需线程安全且足够轻量. 未注册监听器时执行路径上不会读取时钟
+ */
+public interface ExecutionListener {
+
+    /**
+     * 一次执行开始
+     */
+    default void onExecutionStarted(long nanoTime) {
+    }
+
+    /**
+     * 节点就绪并提交调度(内联续跑时与开始时间相同)
+     */
+    default void onNodeSubmitted(int idx, long nanoTime) {
+    }
+
+    /**
+     * 节点开始执行
+     */
+    default void onNodeStarted(int idx, long nanoTime) {
+    }
+
+    /**
+     * 节点执行成功, 异步节点为其 CompletionStage 完成的时间
+     */
+    default void onNodeFinished(int idx, long nanoTime) {
+    }
+
+    /**
+     * 节点执行失败
+     */
+    default void onNodeFailed(int idx, Throwable cause, long nanoTime) {
+    }
+
+    /**
+     * 节点执行失败, 将按其重试策略在 delayNanos 后重新执行; 重试次数用尽时改为触发 {@link #onNodeFailed}
+     *
+     * @param attempt 已失败的执行次数, 从 1 开始
+     */
+    default void onNodeRetry(int idx, int attempt, Throwable cause, long delayNanos, long nanoTime) {
+    }
+
+    /**
+     * 节点的全部后继执行完毕, cleanup 已调用
+     */
+    default void onNodeCleanedUp(int idx, long nanoTime) {
+    }
+
+    /**
+     * 一次执行结束, 成功时 cause 为 null
+     */
+    default void onExecutionFinished(Throwable cause, long nanoTime) {
+    }
+}
@@ -0,0 +1,642 @@
+package com.github.dag.core;
+
+import com.github.dag.core.graph.Graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 编译后的执行计划, 对同一个 Graph 只构建一次, 可被多次、并发地执行.
+ * <p>
+ * 每次执行所需的入度/出度计数、完成标记等状态放在 {@link ExecutionContext} 中,
+ * 执行结束后归还到计划内部的池中, 下次执行时以 O(节点数) 重置, 不再重新分配
+ */
+public class ExecutionPlan<T> {
+
+    /**
+     * 默认的条带计数阈值, 入度(出度)不小于该值的节点使用 {@link StripedCounters}
+     */
+    public static final int DEFAULT_STRIPED_COUNTER_THRESHOLD = 1024;
+
+    private final Graph<T> graph;
+
+    private final ExecutorService executeBackend;
+
+    /**
+     * 节点完成后在当前线程上连续内联执行后继节点的最大次数, 0 表示关闭内联, 后继全部提交到线程池
+     */
+    private final int inlineDepth;
+
+    /**
+     * 是否按 bottom level 优先调度就绪节点
+     */
+    private final boolean priorityScheduling;
+
+    private final ExecutionListener listener;
+
+    /**
+     * 高入度节点的条带计数布局, 没有达到阈值的节点时为 null
+     */
+    private final StripedCounters.Layout inDegreeLayout;
+
+    /**
+     * 高出度节点的条带计数布局, 没有达到阈值的节点时为 null
+     */
+    private final StripedCounters.Layout outDegreeLayout;
+
+    /**
+     * 各节点所属资源类别的舱壁, 以节点下标索引; 未配置任何舱壁时为 null
+     */
+    private final ResourceRoute[] routes;
+
+    /**
+     * 资源类别 -> 舱壁
+     */
+    private final Map<String, ResourceRoute> routeByResource;
+
+    /**
+     * 按节点输出预估字节数做准入控制的内存预算, 未配置时为 null
+     */
+    private final MemoryBudget memoryBudget;
+
+    /**
+     * 幂等节点的推测执行, 未开启时为 null
+     */
+    private final Speculation speculation;
+
+    /**
+     * 各节点的重试策略, 以节点下标索引; 未配置时为 null
+     */
+    private final RetryPolicy[] retryPolicies;
+
+    private final ScheduledExecutorService retryTimer;
+
+    /**
+     * 空闲的执行上下文, 池大小等于历史最大并发执行数
+     */
+    private final ArrayDeque<ExecutionContext<T>> contextPool = new ArrayDeque<>();
+
+    /**
+     * 节点到下标的索引, 按节点指定执行范围时才构建
+     */
+    private volatile Map<T, Integer> nodeIndex;
+
+    public ExecutionPlan(Graph<T> graph, ExecutorService executeBackend) {
+        this(new Builder<>(graph, executeBackend));
+    }
+
+    private ExecutionPlan(Builder<T> builder) {
+        this.graph = builder.graph;
+        this.executeBackend = builder.executeBackend;
+        this.inlineDepth = builder.inlineDepth;
+        this.priorityScheduling = builder.priorityScheduling;
+        this.listener = builder.listener;
+        this.inDegreeLayout = StripedCounters.Layout.of(graph.getReverseAdjacencyOffset(), graph.getReverseAdjacency(), builder.stripedCounterThreshold);
+        this.outDegreeLayout = StripedCounters.Layout.of(graph.getAdjacencyOffset(), graph.getAdjacency(), builder.stripedCounterThreshold);
+        this.routeByResource = new HashMap<>();
+        Set<String> resources = new HashSet<>(builder.resourcePools.keySet());
+        resources.addAll(builder.resourceLimits.keySet());
+        for (String resource : resources) {
+            routeByResource.put(resource, new ResourceRoute(resource,
+                    builder.resourcePools.getOrDefault(resource, executeBackend),
+                    builder.resourceLimits.getOrDefault(resource, Integer.MAX_VALUE)));
+        }
+        ResourceRoute[] routes = null;
+        if (!routeByResource.isEmpty()) {
+            routes = new ResourceRoute[graph.getNodes().length];
+            for (int i = 0; i < routes.length; i++) {
+                String resource = graph.getResourceByIdx(i);
+                routes[i] = resource == null ? null : routeByResource.get(resource);
+            }
+        }
+        this.routes = routes;
+        this.memoryBudget = builder.memoryBudget > 0 ? new MemoryBudget(builder.memoryBudget) : null;
+        if (builder.idempotent != null) {
+            T[] nodes = graph.getNodes();
+            boolean[] idempotent = new boolean[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                idempotent[i] = builder.idempotent.test(nodes[i]);
+            }
+            this.speculation = new Speculation(idempotent, builder.speculationTimer, builder.speculationQuantile, builder.speculationMultiplier);
+        } else {
+            this.speculation = null;
+        }
+        if (builder.retryPolicyOf != null) {
+            T[] nodes = graph.getNodes();
+            RetryPolicy[] retryPolicies = new RetryPolicy[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                retryPolicies[i] = builder.retryPolicyOf.apply(nodes[i]);
+            }
+            this.retryPolicies = retryPolicies;
+        } else {
+            this.retryPolicies = null;
+        }
+        this.retryTimer = builder.retryTimer;
+    }
+
+    public static <T> Builder<T> builder(Graph<T> graph, ExecutorService executeBackend) {
+        return new Builder<>(graph, executeBackend);
+    }
+
+    public Graph<T> getGraph() {
+        return graph;
+    }
+
+    ExecutorService getExecuteBackend() {
+        return executeBackend;
+    }
+
+    int getInlineDepth() {
+        return inlineDepth;
+    }
+
+    boolean isPriorityScheduling() {
+        return priorityScheduling;
+    }
+
+    ExecutionListener getListener() {
+        return listener;
+    }
+
+    StripedCounters.Layout getInDegreeLayout() {
+        return inDegreeLayout;
+    }
+
+    StripedCounters.Layout getOutDegreeLayout() {
+        return outDegreeLayout;
+    }
+
+    ResourceRoute[] getRoutes() {
+        return routes;
+    }
+
+    ResourceRoute getRoute(String resource) {
+        return routeByResource.get(resource);
+    }
+
+    MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    Speculation getSpeculation() {
+        return speculation;
+    }
+
+    RetryPolicy[] getRetryPolicies() {
+        return retryPolicies;
+    }
+
+    ScheduledExecutorService getRetryTimer() {
+        return retryTimer;
+    }
+
+    /**
+     * 同步执行一次, 执行上下文用完后自动归还
+     *
+     * @param handler
+     * @return
+     */
+    public Optional<Exception> executeSync(ConcExecute.Handler<T> handler) {
+        return ExecutionContext.await(executeAsync(handler));
+    }
+
+    /**
+     * 异步执行一次, 不占用调用线程等待. 执行上下文在在途任务全部结束后自动归还
+     *
+     * @param handler
+     * @return 全部节点完成时正常完成, 首个节点失败时以该异常完成
+     */
+    public CompletableFuture<Void> executeAsync(ConcExecute.Handler<T> handler) {
+        ExecutionContext<T> context = acquire();
+        try {
+            return context.executeAsync(handler);
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 以数据流模式异步执行一次, 见 {@link ConcExecute.DataflowHandler}
+     *
+     * @param handler
+     * @param <R>
+     * @return 汇点(出度为 0 的节点)到其输出的映射
+     */
+    public <R> CompletableFuture<Map<T, R>> executeDataflow(ConcExecute.DataflowHandler<T, R> handler) {
+        ExecutionContext<T> context = acquire();
+        try {
+            return context.executeDataflow(handler);
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 批量执行: inputs 中每个元素对应同一个 DAG 的一个实例, 全部实例共用一次执行, 每个节点只调度一次,
+     * 以 {@link ConcExecute.BatchHandler} 一次处理全部就绪实例. 某个实例失败只使其自身退出, 其余实例继续执行
+     *
+     * @param handler
+     * @param inputs  各实例的输入, 作为源点的输入
+     * @param <R>
+     * @return 与 inputs 一一对应, 实例成功时以其汇点到输出的映射完成, 失败时以其异常完成
+     */
+    public <R> List<CompletableFuture<Map<T, R>>> executeBatch(ConcExecute.BatchHandler<T, R> handler, List<R> inputs) {
+        List<CompletableFuture<Map<T, R>>> results = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+        BatchDataflow<T, R> batch = new BatchDataflow<>(handler, inputs, results);
+        executeDataflow(batch).whenComplete(batch::finish);
+        return results;
+    }
+
+    /**
+     * 同步按目标执行一次, 见 {@link #executeAsync(ConcExecute.Handler, Collection)}
+     *
+     * @param handler
+     * @param targets
+     * @return
+     */
+    public Optional<Exception> executeSync(ConcExecute.Handler<T> handler, Collection<T> targets) {
+        return ExecutionContext.await(executeAsync(handler, targets));
+    }
+
+    /**
+     * 按目标异步执行: 只执行目标节点及其全部祖先, 与目标无关的分支不会执行.
+     * 祖先闭包沿反向邻接表按需求出, 准备开销与闭包大小成正比, 与图的规模无关, 可在每次请求时调用
+     *
+     * @param handler
+     * @param targets 需要结果的节点
+     * @return 目标及其祖先全部完成时正常完成, 首个节点失败时以该异常完成
+     * @throws IllegalArgumentException 节点不在图中
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Void> executeAsync(ConcExecute.Handler<T> handler, Collection<T> targets) {
+        int[] idx = indexOf(targets);
+        ExecutionContext<T> context = acquire();
+        try {
+            return (CompletableFuture) context.executeGoal(handler, idx);
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 以数据流模式按目标执行一次, 目标节点的输出在执行结束前不会被释放
+     *
+     * @param handler
+     * @param targets 需要结果的节点
+     * @param <R>
+     * @return 目标节点到其输出的映射
+     * @throws IllegalArgumentException 节点不在图中
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<Map<T, R>> executeDataflow(ConcExecute.DataflowHandler<T, R> handler, Collection<T> targets) {
+        int[] idx = indexOf(targets);
+        ExecutionContext<T> context = acquire();
+        try {
+            return (CompletableFuture) context.executeGoal(handler, idx);
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 同步按检查点执行一次, 见 {@link #executeAsync(ConcExecute.Handler, Checkpoint)}
+     *
+     * @param handler
+     * @param checkpoint
+     * @return
+     */
+    public Optional<Exception> executeSync(ConcExecute.Handler<T> handler, Checkpoint checkpoint) {
+        return ExecutionContext.await(executeAsync(handler, checkpoint));
+    }
+
+    /**
+     * 按检查点异步执行: 检查点中已完成的节点不再执行, 其余节点完成后记入检查点, 进程崩溃后以同一检查点重新执行即可续跑
+     *
+     * @param handler
+     * @param checkpoint 由 {@link Checkpoint#builder(java.nio.file.Path)} 针对本计划的图打开
+     * @return 其余节点全部完成时正常完成, 首个节点失败时以该异常完成
+     * @throws IllegalArgumentException 检查点不是为本计划的图打开的
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Void> executeAsync(ConcExecute.Handler<T> handler, Checkpoint checkpoint) {
+        checkCheckpoint(checkpoint);
+        ExecutionContext<T> context = acquire();
+        try {
+            return (CompletableFuture) context.executeCheckpointed(handler, checkpoint);
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * 以数据流模式按检查点执行, 已完成节点的输出从检查点恢复, 作为其余节点的输入
+     *
+     * @param handler
+     * @param checkpoint 须配置 {@link Checkpoint.Builder#outputCodec(Checkpoint.OutputCodec)}
+     * @param <R>
+     * @return 汇点到其输出的映射
+     * @throws IllegalArgumentException 检查点不是为本计划的图打开的, 或未配置输出的序列化方式
+     */
+    @SuppressWarnings("unchecked")
+    public <R> CompletableFuture<Map<T, R>> executeDataflow(ConcExecute.DataflowHandler<T, R> handler, Checkpoint checkpoint) {
+        checkCheckpoint(checkpoint);
+        if (!checkpoint.hasOutputs()) {
+            throw new IllegalArgumentException("dataflow checkpoint requires an output codec");
+        }
+        ExecutionContext<T> context = acquire();
+        try {
+            return (CompletableFuture) context.executeCheckpointed(handler, checkpoint);
+        } finally {
+            context.release();
+        }
+    }
+
+    private void checkCheckpoint(Checkpoint checkpoint) {
+        if (!checkpoint.matches(graph)) {
+            throw new IllegalArgumentException("checkpoint was opened for a different graph");
+        }
+    }
+
+    /**
+     * 创建增量执行会话, 见 {@link IncrementalExecution}
+     *
+     * @param handler
+     * @param <R>
+     * @return
+     */
+    public <R> IncrementalExecution<T, R> incremental(ConcExecute.DataflowHandler<T, R> handler) {
+        return new IncrementalExecution<>(this, handler);
+    }
+
+    /**
+     * 节点转换为下标, 首次调用时构建索引
+     *
+     * @param nodes
+     * @return
+     * @throws IllegalArgumentException 节点不在图中
+     */
+    int[] indexOf(Collection<T> nodes) {
+        Map<T, Integer> index = nodeIndex;
+        if (index == null) {
+            T[] all = graph.getNodes();
+            index = new HashMap<>(all.length * 2);
+            for (int i = 0; i < all.length; i++) {
+                index.put(all[i], i);
+            }
+            nodeIndex = index;
+        }
+        int[] result = new int[nodes.size()];
+        int i = 0;
+        for (T node : nodes) {
+            Integer idx = index.get(node);
+            if (idx == null) {
+                throw new IllegalArgumentException("node not in graph: " + node);
+            }
+            result[i++] = idx;
+        }
+        return result;
+    }
+
+    /**
+     * 获取一个已重置的执行上下文, 使用完毕后需调用 {@link ExecutionContext#release()} 归还
+     *
+     * @return
+     */
+    public ExecutionContext<T> acquire() {
+        ExecutionContext<T> context;
+        synchronized (contextPool) {
+            context = contextPool.pollFirst();
+        }
+        if (context == null) {
+            context = new ExecutionContext<>(this);
+        }
+        context.reset();
+        return context;
+    }
+
+    /**
+     * 调用方已释放且在途任务全部结束后回收
+     *
+     * @param context
+     */
+    void recycle(ExecutionContext<T> context) {
+        synchronized (contextPool) {
+            contextPool.offerFirst(context);
+        }
+    }
+
+    /**
+     * 执行计划构造器
+     *
+     * @param <T>
+     */
+    public static class Builder<T> {
+
+        private final Graph<T> graph;
+
+        private final ExecutorService executeBackend;
+
+        private int inlineDepth;
+
+        private boolean priorityScheduling;
+
+        private ExecutionListener listener;
+
+        private int stripedCounterThreshold = DEFAULT_STRIPED_COUNTER_THRESHOLD;
+
+        private final Map<String, ExecutorService> resourcePools = new HashMap<>();
+
+        private final Map<String, Integer> resourceLimits = new HashMap<>();
+
+        private long memoryBudget;
+
+        private Predicate<T> idempotent;
+
+        private ScheduledExecutorService speculationTimer;
+
+        private double speculationQuantile = Speculation.DEFAULT_QUANTILE;
+
+        private double speculationMultiplier = Speculation.DEFAULT_MULTIPLIER;
+
+        private Function<T, RetryPolicy> retryPolicyOf;
+
+        private ScheduledExecutorService retryTimer;
+
+        private Builder(Graph<T> graph, ExecutorService executeBackend) {
+            this.graph = graph;
+            this.executeBackend = executeBackend;
+        }
+
+        /**
+         * 开启内联续跑: 节点完成后, 就绪的后继中的一个直接在当前线程执行, 其余提交到线程池.
+         * 内联以循环而非递归实现, depth 限制连续内联的次数, 达到上限后仍提交到线程池, 避免单个线程长期独占一条执行路径
+         *
+         * @param depth
+         * @return
+         */
+        public Builder<T> inlineDepth(int depth) {
+            if (depth < 0) {
+                throw new IllegalArgumentException("inline depth must not be negative: " + depth);
+            }
+            this.inlineDepth = depth;
+            return this;
+        }
+
+        /**
+         * 开启关键路径优先调度: 就绪节点先进入以 {@link Graph#getBottomLevel()} 为键的优先队列,
+         * 线程池中的每个任务执行时再取出当前 bottom level 最大的节点, 使长关键路径不被大量廉价叶子节点阻塞.
+         * 节点代价通过 {@link Graph.Builder#cost(Object, long)} 指定
+         *
+         * @return
+         */
+        public Builder<T> priorityScheduling() {
+            this.priorityScheduling = true;
+            return this;
+        }
+
+        /**
+         * 注册执行过程监听器, 如 {@link com.github.dag.core.metrics.ExecutionRecorder}
+         *
+         * @param listener
+         * @return
+         */
+        public Builder<T> listener(ExecutionListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * 入度(出度)不小于 threshold 的节点改用条带计数, 上万个前置节点并发完成时不再争用同一个计数槽位.
+         * 默认 {@link #DEFAULT_STRIPED_COUNTER_THRESHOLD}, 传 {@link Integer#MAX_VALUE} 关闭
+         *
+         * @param threshold
+         * @return
+         */
+        public Builder<T> stripedCounterThreshold(int threshold) {
+            if (threshold < 2) {
+                throw new IllegalArgumentException("striped counter threshold must be at least 2: " + threshold);
+            }
+            this.stripedCounterThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 资源类别为 resource 的节点(见 {@link Graph.Builder#resource(Object, String)})提交到专属线程池, 与其它类别的节点互不挤占
+         *
+         * @param resource
+         * @param pool
+         * @return
+         */
+        public Builder<T> resourcePool(String resource, ExecutorService pool) {
+            resourcePools.put(resource, pool);
+            return this;
+        }
+
+        /**
+         * 资源类别为 resource 的节点同时执行的数量不超过 permits, 由该计划的全部并发执行共享.
+         * 许可不足时就绪节点在该类别的等待队列中排队, 不占用工作线程; 异步节点持有许可直到其 CompletionStage 完成
+         * <p>
+         * 许可在节点执行线程的收尾阶段归还, 晚于执行结果的完成(执行失败时其余在途节点还会继续运行到结束),
+         * 因此执行返回的 future 完成时该类别的许可可能尚未全部归还
+         *
+         * @param resource
+         * @param permits
+         * @return
+         */
+        public Builder<T> resourceLimit(String resource, int permits) {
+            if (permits <= 0) {
+                throw new IllegalArgumentException("resource permits must be positive: " + permits);
+            }
+            resourceLimits.put(resource, permits);
+            return this;
+        }
+
+        /**
+         * 内存预算调度: 节点就绪时预留其输出预估字节数(见 {@link Graph.Builder#outputSize(Object, long)}), 被 cleanup 时归还.
+         * 已预留字节数达到预算时就绪节点排队等待, 优先准入执行后能释放最多前驱输出的节点. 预算由该计划的全部并发执行共享.
+         * 没有节点在执行时队首节点总会被准入, 因此预算只是软上限, 不会因单个节点输出过大而停滞
+         * <p>
+         * 汇点与未被 cleanup 的节点的预留在执行上下文回收时归还, 晚于执行结果的完成, 因此执行返回的 future 完成时预留可能尚未归零
+         *
+         * @param bytes
+         * @return
+         */
+        public Builder<T> memoryBudget(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("memory budget must be positive: " + bytes);
+            }
+            this.memoryBudget = bytes;
+            return this;
+        }
+
+        /**
+         * 对幂等节点开启推测执行: 节点运行时间超过其历史耗时阈值(见 {@link #speculationThreshold(double, double)})时再启动一个副本,
+         * 先完成者胜出, 另一方被取消. 节点可能被执行两次, 只能用于无副作用或可重复执行的节点.
+         * 副本在节点所属资源类别的线程池上执行并占用该类别的一个许可, 许可已用满时不排队、不启动副本; 副本不计入内存预算
+         *
+         * @param idempotent 节点是否幂等, 编译计划时对每个节点求值一次
+         * @param timer      触发副本的定时器
+         * @return
+         */
+        public Builder<T> speculation(Predicate<T> idempotent, ScheduledExecutorService timer) {
+            if (idempotent == null || timer == null) {
+                throw new IllegalArgumentException("idempotent predicate and timer are required");
+            }
+            this.idempotent = idempotent;
+            this.speculationTimer = timer;
+            return this;
+        }
+
+        /**
+         * 推测执行阈值为节点最近耗时的 quantile 分位数乘以 multiplier, 默认为中位数的 1.5 倍
+         *
+         * @param quantile   (0, 1]
+         * @param multiplier 不小于 1
+         * @return
+         */
+        public Builder<T> speculationThreshold(double quantile, double multiplier) {
+            if (!(quantile > 0 && quantile <= 1) || !(multiplier >= 1)) {
+                throw new IllegalArgumentException("invalid speculation threshold: quantile=" + quantile + ", multiplier=" + multiplier);
+            }
+            this.speculationQuantile = quantile;
+            this.speculationMultiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * 节点失败时按其重试策略重新执行, 而不是立即使整次执行失败. 退避等待由 timer 调度, 不占用工作线程;
+         * 重试经 {@link ExecutionListener#onNodeRetry(int, int, Throwable, long, long)} 上报
+         *
+         * @param retryPolicyOf 节点 -> 重试策略, 返回 null 的节点不重试; 编译计划时对每个节点求值一次
+         * @param timer         调度重试的定时器
+         * @return
+         */
+        public Builder<T> retryPolicy(Function<T, RetryPolicy> retryPolicyOf, ScheduledExecutorService timer) {
+            if (retryPolicyOf == null || timer == null) {
+                throw new IllegalArgumentException("retry policy and timer are required");
+            }
+            this.retryPolicyOf = retryPolicyOf;
+            this.retryTimer = timer;
+            return this;
+        }
+
+        public ExecutionPlan<T> build() {
+            return new ExecutionPlan<>(this);
+        }
+    }
+}
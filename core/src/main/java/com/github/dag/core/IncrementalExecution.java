@@ -0,0 +1,134 @@
+package com.github.dag.core;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 增量执行会话, 由 {@link ExecutionPlan#incremental(ConcExecute.DataflowHandler)} 创建.
+ * <p>
+ * 会话跨次保留全部节点的输出. 首次 {@link #execute()} 执行全图; 之后输入变化时由调用方标记脏节点,
+ * {@link #update(Collection)} 只重新执行脏节点及其全部后代, 未受影响的前置节点视为已完成, 直接复用缓存的输出.
+ * <p>
+ * 同一会话同时只能有一次执行在进行. 某次执行失败时, 其脏节点会并入下一次 update 重新执行;
+ * 全量执行失败则下一次 update 退化为全量执行. 失败的执行返回后其在途节点仍在运行并写入缓存的输出,
+ * 下一次执行推迟到这些节点全部结束后才开始, 不会被残留的旧输出覆盖
+ *
+ * @param <T>
+ * @param <R>
+ */
+public class IncrementalExecution<T, R> {
+
+    private final ExecutionPlan<T> plan;
+
+    private final ConcExecute.DataflowHandler<T, R> handler;
+
+    /**
+     * 各节点最近一次执行成功的输出
+     */
+    private final Object[] outputs;
+
+    /**
+     * 是否已有一次成功的全量执行, 之前的 update 都按全量执行
+     */
+    private boolean initialized;
+
+    /**
+     * 上一次失败的增量执行的脏节点, 需在下一次 update 中重新执行
+     */
+    private int[] pending;
+
+    private CompletableFuture<Map<T, R>> current;
+
+    /**
+     * 上一次执行的全部在途节点结束时完成
+     */
+    private CompletableFuture<Void> drained;
+
+    IncrementalExecution(ExecutionPlan<T> plan, ConcExecute.DataflowHandler<T, R> handler) {
+        this.plan = plan;
+        this.handler = handler;
+        this.outputs = new Object[plan.getGraph().getNodes().length];
+    }
+
+    /**
+     * 全量执行一次, 刷新全部缓存
+     *
+     * @return 汇点(出度为 0 的节点)到其输出的映射
+     */
+    public synchronized CompletableFuture<Map<T, R>> execute() {
+        return run(null);
+    }
+
+    /**
+     * 只重新执行脏节点及其后代
+     *
+     * @param dirty 输入发生变化的节点
+     * @return 汇点到其输出的映射, 未重新执行的汇点取缓存的输出
+     * @throws IllegalArgumentException 节点不在图中
+     */
+    public synchronized CompletableFuture<Map<T, R>> update(Collection<T> dirty) {
+        int[] idx = plan.indexOf(dirty);
+        if (!initialized) {
+            return run(null);
+        }
+        if (pending != null) {
+            int[] merged = new int[pending.length + idx.length];
+            System.arraycopy(pending, 0, merged, 0, pending.length);
+            System.arraycopy(idx, 0, merged, pending.length, idx.length);
+            idx = merged;
+        }
+        return run(idx);
+    }
+
+    /**
+     * 节点最近一次执行成功的输出, 应在执行完成后读取
+     *
+     * @param node
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized R getOutput(T node) {
+        return (R) outputs[plan.indexOf(Collections.singletonList(node))[0]];
+    }
+
+    private CompletableFuture<Map<T, R>> run(int[] dirty) {
+        if (current != null && !current.isDone()) {
+            throw new IllegalStateException("previous incremental execution is still running");
+        }
+        CompletableFuture<Void> previous = drained;
+        CompletableFuture<Void> drained = new CompletableFuture<>();
+        this.drained = drained;
+        if (previous == null || previous.isDone()) {
+            current = start(dirty, drained);
+        } else {
+            current = previous.thenCompose(v -> start(dirty, drained));
+        }
+        return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Map<T, R>> start(int[] dirty, CompletableFuture<Void> drained) {
+        ExecutionContext<T> context = plan.acquire();
+        context.onRecycled(() -> drained.complete(null));
+        CompletableFuture<Object> completion;
+        try {
+            completion = context.executeIncremental(handler, outputs, dirty);
+        } finally {
+            context.release();
+        }
+        return completion.whenComplete((result, t) -> {
+            synchronized (this) {
+                if (t == null) {
+                    initialized = true;
+                    pending = null;
+                } else if (dirty == null) {
+                    initialized = false;
+                } else {
+                    pending = dirty;
+                }
+            }
+        }).thenApply(result -> (Map<T, R>) result);
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.dag.core;
+
+import java.util.PriorityQueue;
+
+/**
+ * 按节点输出预估字节数做准入控制的内存预算, 由同一执行计划的全部并发执行共享.
+ * <p>
+ * 节点就绪时预留其输出字节数, 在其全部后继执行完毕、即节点被 cleanup 时归还; 汇点及执行中断时未清理的节点在执行上下文回收时统一归还.
+ * 预算不足时就绪节点进入等待队列, 不占用工作线程, 按"执行后可释放的字节数"从大到小准入, 优先执行能让前驱输出尽早释放的节点.
+ * <p>
+ * 没有已准入且尚未执行结束的节点时, 队首节点即使超出预算也会被准入, 保证单个输出大于预算或预算被已完成节点的输出占满时仍能推进
+ */
+final class MemoryBudget {
+
+    private final long budget;
+
+    /**
+     * 已预留、尚未归还的字节数
+     */
+    private long reserved;
+
+    /**
+     * 已准入、尚未执行结束的节点数
+     */
+    private int admitted;
+
+    private long sequence;
+
+    private final PriorityQueue<Waiter> waiting = new PriorityQueue<>();
+
+    MemoryBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * 内联续跑前尝试准入, 不排队
+     *
+     * @param bytes
+     * @return
+     */
+    synchronized boolean tryReserve(long bytes) {
+        if (admitted > 0 && reserved + bytes > budget) {
+            return false;
+        }
+        reserved += bytes;
+        admitted++;
+        return true;
+    }
+
+    /**
+     * 预算充足时立即准入, 否则排队; 出队准入时回调 {@link ExecutionContext#admitted(int, long)}
+     *
+     * @param context
+     * @param idx
+     * @param bytes
+     * @param freeable 节点执行后预计可释放的字节数, 决定等待时的准入顺序
+     * @return 是否立即准入
+     */
+    boolean reserve(ExecutionContext<?> context, int idx, long bytes, long freeable) {
+        synchronized (this) {
+            if (waiting.isEmpty() && tryReserve(bytes)) {
+                return true;
+            }
+            waiting.add(new Waiter(context, idx, bytes, freeable, sequence++));
+        }
+        drain();
+        return false;
+    }
+
+    /**
+     * 已准入的节点执行结束(异步节点为其 CompletionStage 完成), 其输出仍保留预留
+     */
+    void finished() {
+        synchronized (this) {
+            admitted--;
+        }
+        drain();
+    }
+
+    /**
+     * 归还预留的字节数
+     *
+     * @param bytes
+     */
+    void release(long bytes) {
+        synchronized (this) {
+            reserved -= bytes;
+        }
+        drain();
+    }
+
+    /**
+     * 按优先级准入等待中的节点, 在锁外回调执行上下文, 避免持锁提交任务
+     */
+    private void drain() {
+        while (true) {
+            Waiter next;
+            synchronized (this) {
+                next = waiting.peek();
+                if (next == null || !tryReserve(next.bytes)) {
+                    return;
+                }
+                waiting.poll();
+            }
+            next.context.admitted(next.idx, next.bytes);
+        }
+    }
+
+    synchronized long getReserved() {
+        return reserved;
+    }
+
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryBudget(budget=" + budget + ")";
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+
+        private final ExecutionContext<?> context;
+
+        private final int idx;
+
+        private final long bytes;
+
+        private final long freeable;
+
+        private final long sequence;
+
+        Waiter(ExecutionContext<?> context, int idx, long bytes, long freeable, long sequence) {
+            this.context = context;
+            this.idx = idx;
+            this.bytes = bytes;
+            this.freeable = freeable;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            // 可释放字节数大者优先, 相同时先到先得
+            int c = Long.compare(o.freeable, freeable);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.dag.core;
+
+/**
+ * 就绪节点的优先队列, 以节点优先级(bottom level)为键的二叉大顶堆.
+ * <p>
+ * 每个节点在一次执行中至多入队一次, 容量为节点数, 预先分配后跨多次执行复用
+ */
+class ReadyQueue {
+
+    private final long[] priority;
+
+    private final int[] heap;
+
+    /**
+     * 节点入队时间, 以节点下标索引
+     */
+    private final long[] submitTime;
+
+    private int size;
+
+    ReadyQueue(long[] priority) {
+        this.priority = priority;
+        this.heap = new int[priority.length];
+        this.submitTime = new long[priority.length];
+    }
+
+    synchronized void push(int idx, long time) {
+        submitTime[idx] = time;
+        int i = size++;
+        // 上浮
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priority[heap[parent]] >= priority[idx]) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = idx;
+    }
+
+    /**
+     * 弹出优先级最高的节点, 队列为空时返回 -1
+     *
+     * @return
+     */
+    synchronized int pop() {
+        if (size == 0) {
+            return -1;
+        }
+        int top = heap[0];
+        int last = heap[--size];
+        // 下沉
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && priority[heap[right]] > priority[heap[child]]) {
+                child = right;
+            }
+            if (priority[last] >= priority[heap[child]]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    /**
+     * 须在 {@link #pop()} 之后、同一节点再次入队之前读取
+     *
+     * @param idx
+     * @return
+     */
+    long submitTime(int idx) {
+        return submitTime[idx];
+    }
+
+    synchronized void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.dag.core;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 一个资源类别的舱壁: 该类别的节点提交到专属线程池, 并受并发许可数限制.
+ * <p>
+ * 许可在节点提交时获取, 在节点执行结束(异步节点为其 CompletionStage 完成)时归还.
+ * 许可不足时就绪节点留在本类别的等待队列中, 不占用任何工作线程; 归还许可时直接把许可转交给队首节点并提交.
+ * 由同一执行计划的全部并发执行共享
+ */
+final class ResourceRoute {
+
+    private final String resource;
+
+    private final ExecutorService pool;
+
+    private final int limit;
+
+    private final ArrayDeque<ExecutionContext.NodeTask> waiting = new ArrayDeque<>();
+
+    private int inUse;
+
+    ResourceRoute(String resource, ExecutorService pool, int limit) {
+        this.resource = resource;
+        this.pool = pool;
+        this.limit = limit;
+    }
+
+    ExecutorService getPool() {
+        return pool;
+    }
+
+    /**
+     * 有许可时提交到线程池, 否则排队等待
+     *
+     * @param task
+     * @throws RejectedExecutionException 线程池拒绝, 此时许可已归还
+     */
+    void submit(ExecutionContext.NodeTask task) {
+        synchronized (this) {
+            if (inUse >= limit) {
+                waiting.addLast(task);
+                return;
+            }
+            inUse++;
+        }
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * 内联续跑前尝试获取许可, 不排队
+     *
+     * @return
+     */
+    synchronized boolean tryAcquire() {
+        if (inUse >= limit) {
+            return false;
+        }
+        inUse++;
+        return true;
+    }
+
+    /**
+     * 归还许可, 有等待的节点时许可直接转交给它
+     */
+    void release() {
+        while (true) {
+            ExecutionContext.NodeTask next;
+            synchronized (this) {
+                next = waiting.pollFirst();
+                if (next == null) {
+                    inUse--;
+                    return;
+                }
+            }
+            try {
+                pool.execute(next);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 转交失败, 由该节点所在的执行处理失败, 许可继续转交给下一个
+                next.rejected(e);
+            }
+        }
+    }
+
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    synchronized int getInUse() {
+        return inUse;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceRoute(resource=" + resource + ", limit=" + (limit == Integer.MAX_VALUE ? "unlimited" : limit) + ")";
+    }
+}
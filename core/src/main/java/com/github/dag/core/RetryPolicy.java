@@ -0,0 +1,143 @@
+package com.github.dag.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 节点失败后的重试策略, 通过 {@link ExecutionPlan.Builder#retryPolicy(java.util.function.Function, java.util.concurrent.ScheduledExecutorService)} 按节点指定.
+ * <p>
+ * 第 n 次执行失败后等待 min(initial * 2^(n-1), max), 再按 jitter 比例随机缩短, 使同时失败的节点错开重试.
+ * 等待由定时器完成, 不占用工作线程; 执行次数达到上限或异常不可重试时执行才失败
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+
+    private final long initialBackoffNanos;
+
+    private final long maxBackoffNanos;
+
+    private final double jitter;
+
+    private final Predicate<? super Exception> retryOn;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(builder.initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(builder.maxBackoffMillis);
+        this.jitter = builder.jitter;
+        this.retryOn = builder.retryOn;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt 已失败的执行次数, 从 1 开始
+     * @param cause
+     * @return
+     */
+    boolean shouldRetry(int attempt, Exception cause) {
+        return attempt < maxAttempts && retryOn.test(cause);
+    }
+
+    /**
+     * @param attempt 已失败的执行次数, 从 1 开始
+     * @return 下一次执行前等待的纳秒数
+     */
+    long delayNanos(int attempt) {
+        long backoff = initialBackoffNanos;
+        for (int i = 1; i < attempt && backoff < maxBackoffNanos; i++) {
+            backoff <<= 1;
+        }
+        backoff = Math.min(backoff, maxBackoffNanos);
+        return backoff - (long) (backoff * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy(maxAttempts=" + maxAttempts + ", initialBackoffNanos=" + initialBackoffNanos
+                + ", maxBackoffNanos=" + maxBackoffNanos + ", jitter=" + jitter + ")";
+    }
+
+    public static class Builder {
+
+        private int maxAttempts = 3;
+
+        private long initialBackoffMillis = 100;
+
+        private long maxBackoffMillis = 10000;
+
+        private double jitter = 0.5;
+
+        private Predicate<? super Exception> retryOn = e -> true;
+
+        private Builder() {
+        }
+
+        /**
+         * 最多执行次数, 含首次执行
+         *
+         * @param maxAttempts
+         * @return
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("max attempts must be positive: " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * 指数退避的初始与最大等待时间
+         *
+         * @param initialMillis
+         * @param maxMillis
+         * @return
+         */
+        public Builder backoff(long initialMillis, long maxMillis) {
+            if (initialMillis < 0 || maxMillis < initialMillis) {
+                throw new IllegalArgumentException("invalid backoff: initial=" + initialMillis + ", max=" + maxMillis);
+            }
+            this.initialBackoffMillis = initialMillis;
+            this.maxBackoffMillis = maxMillis;
+            return this;
+        }
+
+        /**
+         * 等待时间随机缩短的最大比例, 0 为不加抖动
+         *
+         * @param jitter [0, 1]
+         * @return
+         */
+        public Builder jitter(double jitter) {
+            if (!(jitter >= 0 && jitter <= 1)) {
+                throw new IllegalArgumentException("jitter must be in [0, 1]: " + jitter);
+            }
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * 可重试的异常, 默认全部重试
+         *
+         * @param retryOn
+         * @return
+         */
+        public Builder retryOn(Predicate<? super Exception> retryOn) {
+            this.retryOn = retryOn;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
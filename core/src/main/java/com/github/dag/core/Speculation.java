@@ -0,0 +1,113 @@
+package com.github.dag.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 推测执行的配置与各节点的耗时历史, 由执行计划持有, 全部并发执行共享.
+ * <p>
+ * 只对标记为幂等的节点记录耗时: 每个节点保留最近 {@link #WINDOW} 次胜出执行的耗时, 样本数达到 {@link #MIN_SAMPLES} 后,
+ * 节点运行超过"耗时分位数 × 倍数"即启动一个副本, 先完成者胜出
+ */
+final class Speculation {
+
+    static final double DEFAULT_QUANTILE = 0.5;
+
+    static final double DEFAULT_MULTIPLIER = 1.5;
+
+    /**
+     * 每个节点保留的耗时样本数
+     */
+    private static final int WINDOW = 64;
+
+    /**
+     * 样本不足时不做推测, 避免冷启动时的偶然抖动触发副本
+     */
+    private static final int MIN_SAMPLES = 5;
+
+    private final ScheduledExecutorService timer;
+
+    private final double quantile;
+
+    private final double multiplier;
+
+    /**
+     * 幂等节点的耗时环形缓冲, 其余节点为 null
+     */
+    private final long[][] samples;
+
+    /**
+     * 有效样本数, 不超过 {@link #WINDOW}
+     */
+    private final int[] size;
+
+    /**
+     * 下一个样本写入的位置
+     */
+    private final int[] cursor;
+
+    /**
+     * 启动副本的阈值(纳秒), 样本不足时为 -1, 每次记录后重新计算
+     */
+    private final long[] threshold;
+
+    Speculation(boolean[] idempotent, ScheduledExecutorService timer, double quantile, double multiplier) {
+        this.timer = timer;
+        this.quantile = quantile;
+        this.multiplier = multiplier;
+        this.samples = new long[idempotent.length][];
+        this.size = new int[idempotent.length];
+        this.cursor = new int[idempotent.length];
+        this.threshold = new long[idempotent.length];
+        Arrays.fill(threshold, -1);
+        for (int i = 0; i < idempotent.length; i++) {
+            if (idempotent[i]) {
+                samples[i] = new long[WINDOW];
+            }
+        }
+    }
+
+    boolean isSpeculative(int idx) {
+        return samples[idx] != null;
+    }
+
+    ScheduledExecutorService getTimer() {
+        return timer;
+    }
+
+    /**
+     * @param idx
+     * @return 启动副本前等待的纳秒数, 样本不足时为 -1
+     */
+    long threshold(int idx) {
+        synchronized (samples[idx]) {
+            return threshold[idx];
+        }
+    }
+
+    /**
+     * 记录一次胜出执行的耗时
+     *
+     * @param idx
+     * @param nanos
+     */
+    void record(int idx, long nanos) {
+        long[] window = samples[idx];
+        synchronized (window) {
+            window[cursor[idx]] = nanos;
+            cursor[idx] = (cursor[idx] + 1) % WINDOW;
+            int n = size[idx] = Math.min(size[idx] + 1, WINDOW);
+            if (n >= MIN_SAMPLES) {
+                long[] sorted = Arrays.copyOf(window, n);
+                Arrays.sort(sorted);
+                long percentile = sorted[Math.min(n - 1, (int) (quantile * n))];
+                threshold[idx] = (long) (percentile * multiplier);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Speculation(quantile=" + quantile + ", multiplier=" + multiplier + ")";
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.dag.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 高扇入(或高扇出)节点的无热点计数器, 两层合并树: 根计数 + 若干叶子计数.
+ * <p>
+ * 普通节点的入度/出度放在同一个 {@link java.util.concurrent.atomic.AtomicIntegerArray} 中,
+ * 上万个前置节点并发完成时会集中 CAS 同一个槽位, 并连带相邻节点所在的缓存行.
+ * 这里每个叶子与根各独占一个缓存行(填充到 128 字节, 兼顾相邻行预取), 对端节点按下标散列到固定的叶子,
+ * 叶子减到 0 时再对根减 1, 根减到 0 即计数归零. 根上的竞争从"度数"次降为"非空叶子数"次.
+ * <p>
+ * 哪些节点使用条带计数及各叶子的初值由 {@link Layout} 在编译执行计划时一次算出, 多个执行上下文共享
+ */
+final class StripedCounters {
+
+    /**
+     * 每个计数单元占用的 long 个数, 16 * 8 = 128 字节
+     */
+    private static final int PAD = 16;
+
+    private final Layout layout;
+
+    private final AtomicLongArray cells;
+
+    StripedCounters(Layout layout) {
+        this.layout = layout;
+        this.cells = new AtomicLongArray(layout.init.length * PAD);
+    }
+
+    boolean isStriped(int idx) {
+        return layout.base[idx] >= 0;
+    }
+
+    void reset() {
+        int[] init = layout.init;
+        for (int i = 0; i < init.length; i++) {
+            cells.lazySet(i * PAD, init[i]);
+        }
+    }
+
+    /**
+     * 对端节点 from 完成, 节点 idx 的计数减 1
+     *
+     * @param idx  使用条带计数的节点
+     * @param from 对端节点下标, 决定落在哪个叶子上
+     * @return 计数是否归零
+     */
+    boolean decrement(int idx, int from) {
+        int root = layout.base[idx];
+        int leaf = root + 1 + layout.leaf(idx, from);
+        return cells.decrementAndGet(leaf * PAD) == 0 && cells.decrementAndGet(root * PAD) == 0;
+    }
+
+    /**
+     * 条带计数的静态布局, 由 CSR 邻接关系与度数阈值计算, 每个节点的计数单元为 [根, 叶子 0, 叶子 1, ...]
+     */
+    static final class Layout {
+
+        /**
+         * 节点的根计数单元下标, 未使用条带计数时为 -1
+         */
+        private final int[] base;
+
+        /**
+         * 节点叶子数的以 2 为底的对数, 散列时取高位
+         */
+        private final int[] bits;
+
+        /**
+         * 各计数单元的初值, 根的初值为非空叶子数
+         */
+        private final int[] init;
+
+        private Layout(int[] base, int[] bits, int[] init) {
+            this.base = base;
+            this.bits = bits;
+            this.init = init;
+        }
+
+        /**
+         * @param offset    CSR 偏移, 节点 i 的对端为 neighbour[offset[i], offset[i + 1])
+         * @param neighbour 对端节点下标, 入度计数传反向邻接表, 出度计数传邻接表
+         * @param threshold 度数不小于该值的节点使用条带计数
+         * @return 没有节点达到阈值时返回 null
+         */
+        static Layout of(int[] offset, int[] neighbour, int threshold) {
+            int n = offset.length - 1;
+            int maxStripes = Math.min(1024, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2));
+            int[] base = new int[n];
+            int[] bits = new int[n];
+            Arrays.fill(base, -1);
+            int cells = 0;
+            for (int i = 0; i < n; i++) {
+                int degree = offset[i + 1] - offset[i];
+                if (degree >= threshold) {
+                    // 每个叶子至少分摊 16 个对端, 至少 2 个叶子
+                    int stripes = Math.max(2, Math.min(maxStripes, Integer.highestOneBit(degree / 16)));
+                    base[i] = cells;
+                    bits[i] = Integer.numberOfTrailingZeros(stripes);
+                    cells += 1 + stripes;
+                }
+            }
+            if (cells == 0) {
+                return null;
+            }
+            int[] init = new int[cells];
+            Layout layout = new Layout(base, bits, init);
+            for (int i = 0; i < n; i++) {
+                if (base[i] < 0) {
+                    continue;
+                }
+                for (int k = offset[i]; k < offset[i + 1]; k++) {
+                    if (init[base[i] + 1 + layout.leaf(i, neighbour[k])]++ == 0) {
+                        init[base[i]]++;
+                    }
+                }
+            }
+            return layout;
+        }
+
+        /**
+         * 斐波那契散列, 连续或等差的对端下标(同一批次被调度的前置节点)也能均匀分散到各叶子
+         */
+        private int leaf(int idx, int from) {
+            return (from * 0x9E3779B9) >>> (32 - bits[idx]);
+        }
+    }
+}
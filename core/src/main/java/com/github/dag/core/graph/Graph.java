@@ -3,14 +3,22 @@ package com.github.dag.core.graph;
 import lombok.Data;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
 
 /**
  * Created by huangyafeng on 2019/6/6.
+ * <p>
+ * 邻接表与反向邻接表均以 CSR(compressed sparse row) 形式存储:
+ * 节点 i 的后继为 adjacency[adjacencyOffset[i] .. adjacencyOffset[i + 1]),
+ * 避免大图下海量 Integer 装箱对象与遍历时的指针跳转
  */
 @Data
 public class Graph<T> {
 
+    public static final long DEFAULT_COST = 1L;
+
     /**
      * 节点
      */
@@ -22,9 +30,14 @@ public class Graph<T> {
     private int[] inDegree;
 
     /**
-     * 邻接表
+     * 邻接表偏移, 长度为节点数 + 1
      */
-    private List<Integer>[] adjacencyList;
+    private int[] adjacencyOffset;
+
+    /**
+     * 邻接表, 按起点顺序紧凑存放的后继节点下标
+     */
+    private int[] adjacency;
 
     /**
      * 节点出度表
@@ -32,34 +45,189 @@ public class Graph<T> {
     private int[] outDegree;
 
     /**
-     * 反向邻接表
+     * 反向邻接表偏移, 长度为节点数 + 1
+     */
+    private int[] reverseAdjacencyOffset;
+
+    /**
+     * 反向邻接表, 按终点顺序紧凑存放的前置节点下标
      */
-    private List<Integer>[] reverseAdjacencyList;
+    private int[] reverseAdjacency;
 
     /**
      * 入度为 0 的节点下标
      */
-    private List<Integer> zeroDegreeIdx;
+    private int[] zeroDegreeIdx;
+
+    /**
+     * 节点预估执行代价, 未指定时为 {@link #DEFAULT_COST}
+     */
+    private long[] cost;
+
+    /**
+     * 节点 bottom level: 从该节点到汇点的最长路径代价(含自身), 值越大越处于关键路径上
+     */
+    private long[] bottomLevel;
+
+    /**
+     * 节点资源类别(如 cpu、io、db), 执行计划据此把节点路由到对应的线程池或并发许可; 未指定的节点为 null, 整个图都未指定时数组为 null
+     */
+    private String[] resource;
+
+    /**
+     * 节点输出的预估字节数, 执行计划据此做内存预算调度; 整个图都未指定时数组为 null
+     */
+    private long[] outputSize;
+
+    /**
+     * 基于正向 CSR 邻接表构造, 入度、出度、反向邻接表、入度为 0 的节点及 bottom level 均由此推导
+     *
+     * @param nodes
+     * @param adjacencyOffset
+     * @param adjacency
+     * @param cost
+     */
+    Graph(T[] nodes, int[] adjacencyOffset, int[] adjacency, long[] cost) {
+        int n = nodes.length;
+        this.nodes = nodes;
+        this.adjacencyOffset = adjacencyOffset;
+        this.adjacency = adjacency;
+        this.cost = cost;
+        this.inDegree = new int[n];
+        this.outDegree = new int[n];
+        for (int i = 0; i < n; i++) {
+            outDegree[i] = adjacencyOffset[i + 1] - adjacencyOffset[i];
+        }
+        for (int to : adjacency) {
+            inDegree[to]++;
+        }
+        // 反向邻接表: 计数后按起点顺序放置, 同一终点的前置节点保持升序
+        this.reverseAdjacencyOffset = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            reverseAdjacencyOffset[i + 1] = reverseAdjacencyOffset[i] + inDegree[i];
+        }
+        this.reverseAdjacency = new int[adjacency.length];
+        int[] cursor = Arrays.copyOf(reverseAdjacencyOffset, n);
+        for (int from = 0; from < n; from++) {
+            for (int k = adjacencyOffset[from]; k < adjacencyOffset[from + 1]; k++) {
+                reverseAdjacency[cursor[adjacency[k]]++] = from;
+            }
+        }
+        int zeroCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (inDegree[i] == 0) {
+                zeroCount++;
+            }
+        }
+        this.zeroDegreeIdx = new int[zeroCount];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (inDegree[i] == 0) {
+                zeroDegreeIdx[j++] = i;
+            }
+        }
+        this.bottomLevel = bottomLevel();
+    }
 
-    private Graph(T[] nodes, int[] inDegree, List<Integer>[] adjacencyList, int[] outDegree, List<Integer>[] reverseAdjacencyList, List<Integer> zeroDegreeIdx) {
+    /**
+     * 由已编译好的全部数组直接构造, 不再推导, 供 {@link GraphFile} 加载使用
+     */
+    Graph(T[] nodes, int[] adjacencyOffset, int[] adjacency, int[] reverseAdjacencyOffset, int[] reverseAdjacency,
+          int[] inDegree, int[] outDegree, int[] zeroDegreeIdx, long[] cost, long[] bottomLevel) {
         this.nodes = nodes;
+        this.adjacencyOffset = adjacencyOffset;
+        this.adjacency = adjacency;
+        this.reverseAdjacencyOffset = reverseAdjacencyOffset;
+        this.reverseAdjacency = reverseAdjacency;
         this.inDegree = inDegree;
-        this.adjacencyList = adjacencyList;
         this.outDegree = outDegree;
-        this.reverseAdjacencyList = reverseAdjacencyList;
         this.zeroDegreeIdx = zeroDegreeIdx;
+        this.cost = cost;
+        this.bottomLevel = bottomLevel;
     }
 
     public T getNodeByIdx(int idx) {
         return nodes[idx];
     }
 
+    public String getResourceByIdx(int idx) {
+        return resource == null ? null : resource[idx];
+    }
+
+    public long getOutputSizeByIdx(int idx) {
+        return outputSize == null ? 0 : outputSize[idx];
+    }
+
+    public boolean hasOutputSize() {
+        return outputSize != null;
+    }
+
+    /**
+     * 节点 idx 的后继在 {@link #adjacency} 中的起始位置(含)
+     */
+    public int adjacencyBegin(int idx) {
+        return adjacencyOffset[idx];
+    }
+
+    /**
+     * 节点 idx 的后继在 {@link #adjacency} 中的结束位置(不含)
+     */
+    public int adjacencyEnd(int idx) {
+        return adjacencyOffset[idx + 1];
+    }
+
+    /**
+     * 节点 idx 的前置节点在 {@link #reverseAdjacency} 中的起始位置(含)
+     */
+    public int reverseAdjacencyBegin(int idx) {
+        return reverseAdjacencyOffset[idx];
+    }
+
+    /**
+     * 节点 idx 的前置节点在 {@link #reverseAdjacency} 中的结束位置(不含)
+     */
+    public int reverseAdjacencyEnd(int idx) {
+        return reverseAdjacencyOffset[idx + 1];
+    }
+
+    /**
+     * 装箱的后继节点列表, 每次调用均会分配, 热路径请使用 {@link #adjacencyBegin(int)} 等原生访问方法
+     *
+     * @param idx
+     * @return
+     */
+    @Deprecated
     public List<Integer> getAdjacencyListByIdx(int idx) {
-        return adjacencyList[idx];
+        return boxed(adjacency, adjacencyOffset[idx], adjacencyOffset[idx + 1]);
     }
 
+    /**
+     * 装箱的前置节点列表, 每次调用均会分配, 热路径请使用 {@link #reverseAdjacencyBegin(int)} 等原生访问方法
+     *
+     * @param idx
+     * @return
+     */
+    @Deprecated
     public List<Integer> getReverseAdjacencyListByIdx(int idx) {
-        return reverseAdjacencyList[idx];
+        return boxed(reverseAdjacency, reverseAdjacencyOffset[idx], reverseAdjacencyOffset[idx + 1]);
+    }
+
+    /**
+     * 在 ForkJoin 公共池上做逐层并行的拓扑分析, 给出层号、宽度、深度、关键路径长度, 有环时给出一个环
+     *
+     * @return
+     */
+    public GraphAnalysis<T> analyze() {
+        return GraphAnalysis.analyze(this, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 在指定的 ForkJoin 池上做拓扑分析, 见 {@link #analyze()}
+     *
+     * @param pool
+     * @return
+     */
+    public GraphAnalysis<T> analyze(ForkJoinPool pool) {
+        return GraphAnalysis.analyze(this, pool);
     }
 
     /**
@@ -69,26 +237,58 @@ public class Graph<T> {
      */
     public boolean isDAG() {
         int[] inDegreeCopy = inDegreeCopy();
-        // deep copy
-        Deque<Integer> queue = new LinkedList<>(zeroDegreeIdx);
-        while (!queue.isEmpty()) {
-            Integer e = queue.poll();
-            List<Integer> adjacency = adjacencyList[e];
-            if (adjacency != null) {
-                for (Integer adj : adjacency) {
-                    inDegreeCopy[adj]--;
-                    if (inDegreeCopy[adj] == 0) {
-                        queue.push(adj);
-                    }
+        // 每个节点至多入栈一次, 栈容量为节点数即可
+        int[] stack = new int[nodes.length];
+        int top = 0;
+        for (int idx : zeroDegreeIdx) {
+            stack[top++] = idx;
+        }
+        int visited = 0;
+        while (top > 0) {
+            int e = stack[--top];
+            visited++;
+            for (int k = adjacencyOffset[e]; k < adjacencyOffset[e + 1]; k++) {
+                int adj = adjacency[k];
+                if (--inDegreeCopy[adj] == 0) {
+                    stack[top++] = adj;
+                }
+            }
+        }
+        return visited == nodes.length;
+    }
+
+    /**
+     * 按拓扑逆序计算 bottom level, 环上及环后的节点无法排序, 仅取自身代价
+     *
+     * @return
+     */
+    private long[] bottomLevel() {
+        int n = nodes.length;
+        int[] inDegreeCopy = inDegreeCopy();
+        int[] order = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int idx : zeroDegreeIdx) {
+            order[tail++] = idx;
+        }
+        while (head < tail) {
+            int e = order[head++];
+            for (int k = adjacencyOffset[e]; k < adjacencyOffset[e + 1]; k++) {
+                if (--inDegreeCopy[adjacency[k]] == 0) {
+                    order[tail++] = adjacency[k];
                 }
             }
         }
-        for (int i = 0; i < inDegreeCopy.length; i++) {
-            if (inDegreeCopy[i] != 0) {
-                return false;
+        long[] level = Arrays.copyOf(cost, n);
+        for (int p = tail - 1; p >= 0; p--) {
+            int e = order[p];
+            long max = 0;
+            for (int k = adjacencyOffset[e]; k < adjacencyOffset[e + 1]; k++) {
+                max = Math.max(max, level[adjacency[k]]);
             }
+            level[e] = cost[e] + max;
         }
-        return true;
+        return level;
     }
 
     /**
@@ -97,84 +297,273 @@ public class Graph<T> {
      * @return
      */
     public Graph<List<T>> chaining() {
-        int[] inDegreeCopy = new int[inDegree.length];
-        System.arraycopy(inDegree, 0, inDegreeCopy, 0, inDegree.length);
-        Deque<Integer> queue = new LinkedList();
-        queue.addAll(zeroDegreeIdx);
-        // 新的入度为 0 的节点表
-        List<Integer> newZeroDegreeIndex = new ArrayList<>();
-        // 新的入度表
-        List<Integer> newInDegree = new ArrayList<>();
+        int n = nodes.length;
+        int[] inDegreeCopy = inDegreeCopy();
+        // 每个节点至多入队一次, 数组队列即可
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int idx : zeroDegreeIdx) {
+            queue[tail++] = idx;
+        }
         // 新的节点表
         List<List<T>> newNodes = new ArrayList<>();
-        // 新的邻接表
-        List<List<Integer>> newAdjacencyList = new ArrayList<>();
-        int stageIndex = 0;
-        // 当前 stage
-        List<T> currentStage;
-        // 原图 node index -> 新图 stage 索引
-        Map<Integer, Integer> nodeIndexStageMap = new HashMap<>();
-        while (!queue.isEmpty()) {
-            currentStage = new ArrayList<>();
-            Integer i = queue.removeFirst();
-            newNodes.add(currentStage);
+        // stage 代价为所含节点代价之和
+        long[] newCost = new long[n];
+        // 原图 stage 首节点 index -> 新图 stage 索引
+        int[] nodeStage = new int[n];
+        // 新图 stage 索引 -> 原图 stage 尾节点 index
+        int[] stageTail = new int[n];
+        // 新图 stage 索引 -> 资源类别, stage 内节点的资源类别相同
+        String[] newResource = resource == null ? null : new String[n];
+        // stage 输出字节数为所含节点输出之和
+        long[] newOutputSize = outputSize == null ? null : new long[n];
+        int stageCount = 0;
+        int chained = 0;
+        while (head < tail) {
+            int i = queue[head++];
+            List<T> currentStage = new ArrayList<>();
             currentStage.add(nodes[i]);
-            newInDegree.add(inDegree[i]);
-            if (inDegree[i] == 0) {
-                newZeroDegreeIndex.add(stageIndex);
+            newCost[stageCount] = cost[i];
+            if (newOutputSize != null) {
+                newOutputSize[stageCount] = outputSize[i];
             }
-            nodeIndexStageMap.put(i, stageIndex);
-            stageIndex++;
-            // 邻接表为空, 无后继节点，单独作为一个 stage
-            if (adjacencyList[i] == null || adjacencyList[i].isEmpty()) {
-                newAdjacencyList.add(new ArrayList<>());
-                continue;
-            }
-            // 后继节点 size 为 1, 且后继节点入度为 1, 合并到当前 stage
+            nodeStage[i] = stageCount;
+            // 后继节点 size 为 1, 且后继节点入度为 1, 合并到当前 stage; 不同资源类别的节点不合并
             int j = i;
-            while (adjacencyList[j] != null && adjacencyList[j].size() == 1 && (inDegree[adjacencyList[j].get(0)] == 1)) {
-                j = adjacencyList[j].get(0);
+            while (outDegree[j] == 1 && inDegree[adjacency[adjacencyOffset[j]]] == 1
+                    && Objects.equals(getResourceByIdx(i), getResourceByIdx(adjacency[adjacencyOffset[j]]))) {
+                j = adjacency[adjacencyOffset[j]];
                 currentStage.add(nodes[j]);
+                newCost[stageCount] += cost[j];
+                if (newOutputSize != null) {
+                    newOutputSize[stageCount] += outputSize[j];
+                }
             }
-            if (adjacencyList[j] != null) {
-                for (Integer next : adjacencyList[j]) {
-                    if (--inDegreeCopy[next] == 0) {
-                        queue.add(next);
-                    }
+            for (int k = adjacencyOffset[j]; k < adjacencyOffset[j + 1]; k++) {
+                int next = adjacency[k];
+                if (--inDegreeCopy[next] == 0) {
+                    queue[tail++] = next;
                 }
             }
-            newAdjacencyList.add(adjacencyList[j] == null ? new ArrayList<>() : adjacencyList[j]);
+            chained += currentStage.size();
+            newNodes.add(currentStage);
+            if (newResource != null) {
+                newResource[stageCount] = resource[i];
+            }
+            stageTail[stageCount++] = j;
+        }
+        if (chained != n) {
+            throw new IllegalStateException("chaining requires a DAG, " + (n - chained) + " nodes are on or behind a cycle");
+        }
+        // stage 的后继即 stage 尾节点的后继, 而尾节点的后继必为其它 stage 的首节点
+        int[] newAdjacencyOffset = new int[stageCount + 1];
+        for (int s = 0; s < stageCount; s++) {
+            newAdjacencyOffset[s + 1] = newAdjacencyOffset[s] + outDegree[stageTail[s]];
+        }
+        int[] newAdjacency = new int[newAdjacencyOffset[stageCount]];
+        for (int s = 0, p = 0; s < stageCount; s++) {
+            int j = stageTail[s];
+            for (int k = adjacencyOffset[j]; k < adjacencyOffset[j + 1]; k++) {
+                newAdjacency[p++] = nodeStage[adjacency[k]];
+            }
+        }
+        List<T>[] newNodesArr = newNodes.toArray(new List[stageCount]);
+        Graph<List<T>> stages = new Graph<>(newNodesArr, newAdjacencyOffset, newAdjacency, Arrays.copyOf(newCost, stageCount));
+        stages.resource = newResource == null ? null : Arrays.copyOf(newResource, stageCount);
+        stages.outputSize = newOutputSize == null ? null : Arrays.copyOf(newOutputSize, stageCount);
+        return stages;
+    }
+
+    /**
+     * stage 内的节点资源类别相同, 取其中任意一个
+     *
+     * @param nodeStage  原图节点 -> 所在 stage
+     * @param stageCount
+     * @return
+     */
+    private String[] stageResource(int[] nodeStage, int stageCount) {
+        if (resource == null) {
+            return null;
+        }
+        String[] stageResource = new String[stageCount];
+        for (int i = 0; i < nodes.length; i++) {
+            if (resource[i] != null) {
+                stageResource[nodeStage[i]] = resource[i];
+            }
+        }
+        return stageResource;
+    }
+
+    /**
+     * stage 输出字节数为所含节点输出之和
+     *
+     * @param nodeStage  原图节点 -> 所在 stage
+     * @param stageCount
+     * @return
+     */
+    private long[] stageOutputSize(int[] nodeStage, int stageCount) {
+        if (outputSize == null) {
+            return null;
         }
-        for (int i = 0; i < newAdjacencyList.size(); i++) {
-            List<Integer> nextList = newAdjacencyList.get(i);
-            newAdjacencyList.set(i, nextList.stream().map(idx -> nodeIndexStageMap.get(idx)).collect(Collectors.toList()));
+        long[] stageOutputSize = new long[stageCount];
+        for (int i = 0; i < nodes.length; i++) {
+            stageOutputSize[nodeStage[i]] += outputSize[i];
         }
-        int[] newInDegreeArr = new int[newInDegree.size()];
-        for (int i = 0; i < newInDegree.size(); i++) {
-            newInDegreeArr[i] = newInDegree.get(i);
+        return stageOutputSize;
+    }
+
+    /**
+     * 基于代价模型的算子融合, 可融合扇出、菱形等非线性结构, 适用于单个节点代价极小、调度开销占主导的图.
+     * <p>
+     * 按拓扑序逐个放置节点: 优先并入其前置所在的最后创建的 stage, 要求其余前置所在的 stage 都已是该 stage 的前置;
+     * 否则并入前置 stage 集合与其完全相同的兄弟 stage; 都不满足, 或并入后代价之和超过 targetStageCost、资源类别不同时新建 stage.
+     * 新建的 stage 只依赖已存在的 stage, 融合后的图必然无环, 且 stage 之间不会引入原图中不存在的依赖:
+     * 宽扇出的兄弟节点按粒度分组后各组仍相互并行. 代价只在于 stage 的后继需等待同 stage 的全部成员, 至多 targetStageCost.
+     * 代价不小于 targetStageCost 的节点单独成为一个 stage
+     *
+     * @param targetStageCost 目标 stage 粒度, 与 {@link Builder#cost(Object, long)} 使用相同的单位
+     * @return
+     */
+    public Graph<List<T>> fuse(long targetStageCost) {
+        if (targetStageCost <= 0) {
+            throw new IllegalArgumentException("target stage cost must be positive: " + targetStageCost);
         }
-        List<T>[] newNodesArr = new List[newNodes.size()];
-        for (int i = 0; i < newNodes.size(); i++) {
-            newNodesArr[i] = newNodes.get(i);
+        int n = nodes.length;
+        int[] inDegreeCopy = inDegreeCopy();
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int idx : zeroDegreeIdx) {
+            queue[tail++] = idx;
         }
-        List<Integer>[] newAdjacencyListArr = new List[newAdjacencyList.size()];
-        for (int i = 0; i < newAdjacencyList.size(); i++) {
-            newAdjacencyListArr[i] = newAdjacencyList.get(i);
+        List<List<T>> newNodes = new ArrayList<>();
+        long[] newCost = new long[n];
+        int[] nodeStage = new int[n];
+        // stage -> 首节点, 决定 stage 的资源类别
+        int[] stageHead = new int[n];
+        // stage -> 其依赖的 stage, 创建后不再变化
+        List<int[]> stagePreds = new ArrayList<>();
+        // stage -> 最近创建的、以其为前置的 stage, 供兄弟节点并入
+        int[] openChild = new int[n];
+        Arrays.fill(openChild, -1);
+        // 最近创建的无前置 stage
+        int openRoot = -1;
+        // 以节点下标 + 1 标记当前节点的前置 stage
+        int[] mark = new int[n];
+        int[] preds = new int[n];
+        while (head < tail) {
+            int e = queue[head++];
+            int stamp = e + 1;
+            int d = 0;
+            int last = -1;
+            for (int k = reverseAdjacencyOffset[e]; k < reverseAdjacencyOffset[e + 1]; k++) {
+                int s = nodeStage[reverseAdjacency[k]];
+                if (mark[s] != stamp) {
+                    mark[s] = stamp;
+                    preds[d++] = s;
+                    last = Math.max(last, s);
+                }
+            }
+            int stage = -1;
+            if (d == 0) {
+                if (openRoot >= 0 && fits(openRoot, e, newCost, stageHead, targetStageCost)) {
+                    stage = openRoot;
+                }
+            } else {
+                if (fits(last, e, newCost, stageHead, targetStageCost) && markedCount(stagePreds.get(last), mark, stamp) == d - 1) {
+                    stage = last;
+                } else {
+                    int sibling = openChild[last];
+                    if (sibling >= 0 && fits(sibling, e, newCost, stageHead, targetStageCost)
+                            && stagePreds.get(sibling).length == d && markedCount(stagePreds.get(sibling), mark, stamp) == d) {
+                        stage = sibling;
+                    }
+                }
+            }
+            if (stage < 0) {
+                stage = newNodes.size();
+                newNodes.add(new ArrayList<>());
+                stageHead[stage] = e;
+                stagePreds.add(Arrays.copyOf(preds, d));
+                for (int i = 0; i < d; i++) {
+                    openChild[preds[i]] = stage;
+                }
+                if (d == 0) {
+                    openRoot = stage;
+                }
+            }
+            newNodes.get(stage).add(nodes[e]);
+            newCost[stage] += cost[e];
+            nodeStage[e] = stage;
+            for (int k = adjacencyOffset[e]; k < adjacencyOffset[e + 1]; k++) {
+                if (--inDegreeCopy[adjacency[k]] == 0) {
+                    queue[tail++] = adjacency[k];
+                }
+            }
+        }
+        if (tail != n) {
+            throw new IllegalStateException("fuse requires a DAG, " + (n - tail) + " nodes are on or behind a cycle");
+        }
+        int stageCount = newNodes.size();
+        // 按 stage 汇总原图的边, 去掉 stage 内部的边及重复边
+        int[] stageBegin = new int[stageCount + 1];
+        for (int i = 0; i < n; i++) {
+            stageBegin[nodeStage[i] + 1]++;
         }
-        int[] outDegree = new int[newInDegree.size()];
-        for (int i = 0; i < newAdjacencyListArr.length; i++) {
-            outDegree[i] = newAdjacencyListArr[i].size();
+        for (int s = 0; s < stageCount; s++) {
+            stageBegin[s + 1] += stageBegin[s];
         }
-        List<Integer>[] reverseAdjacencyList = new List[newAdjacencyList.size()];
-        for (int i = 0; i < reverseAdjacencyList.length; i++) {
-            reverseAdjacencyList[i] = new ArrayList<>();
+        int[] members = new int[n];
+        int[] cursor = Arrays.copyOf(stageBegin, stageCount);
+        for (int i = 0; i < n; i++) {
+            members[cursor[nodeStage[i]]++] = i;
         }
-        for (int i = 0; i < newAdjacencyListArr.length; i++) {
-            for (Integer to : newAdjacencyListArr[i]) {
-                reverseAdjacencyList[to].add(i);
+        int[] lastSeen = new int[stageCount];
+        Arrays.fill(lastSeen, -1);
+        int[] newAdjacencyOffset = new int[stageCount + 1];
+        int[] newAdjacency = new int[adjacency.length];
+        int p = 0;
+        for (int s = 0; s < stageCount; s++) {
+            lastSeen[s] = s;
+            for (int m = stageBegin[s]; m < stageBegin[s + 1]; m++) {
+                int e = members[m];
+                for (int k = adjacencyOffset[e]; k < adjacencyOffset[e + 1]; k++) {
+                    int to = nodeStage[adjacency[k]];
+                    if (lastSeen[to] != s) {
+                        lastSeen[to] = s;
+                        newAdjacency[p++] = to;
+                    }
+                }
             }
+            newAdjacencyOffset[s + 1] = p;
         }
-        return new Graph<>(newNodesArr, newInDegreeArr, newAdjacencyListArr, outDegree, reverseAdjacencyList, newZeroDegreeIndex);
+        List<T>[] newNodesArr = newNodes.toArray(new List[stageCount]);
+        Graph<List<T>> fused = new Graph<>(newNodesArr, newAdjacencyOffset, Arrays.copyOf(newAdjacency, p), Arrays.copyOf(newCost, stageCount));
+        fused.resource = stageResource(nodeStage, stageCount);
+        fused.outputSize = stageOutputSize(nodeStage, stageCount);
+        return fused;
+    }
+
+    /**
+     * 节点并入 stage 后代价之和不超过目标粒度, 且资源类别相同
+     */
+    private boolean fits(int stage, int idx, long[] stageCost, int[] stageHead, long targetStageCost) {
+        return stageCost[stage] + cost[idx] <= targetStageCost
+                && Objects.equals(getResourceByIdx(idx), getResourceByIdx(stageHead[stage]));
+    }
+
+    /**
+     * stages 中被标记为当前节点前置 stage 的个数
+     */
+    private static int markedCount(int[] stages, int[] mark, int stamp) {
+        int count = 0;
+        for (int s : stages) {
+            if (mark[s] == stamp) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
@@ -188,10 +577,69 @@ public class Graph<T> {
         return inDegreeCopy;
     }
 
+    /**
+     * 沿用 List 形式输出邻接表, 便于阅读
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return "Graph(nodes=" + Arrays.deepToString(nodes)
+                + ", inDegree=" + Arrays.toString(inDegree)
+                + ", adjacencyList=" + csrToString(adjacencyOffset, adjacency)
+                + ", outDegree=" + Arrays.toString(outDegree)
+                + ", reverseAdjacencyList=" + csrToString(reverseAdjacencyOffset, reverseAdjacency)
+                + ", zeroDegreeIdx=" + Arrays.toString(zeroDegreeIdx) + ")";
+    }
+
+    private static String csrToString(int[] offset, int[] targets) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i + 1 < offset.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(boxed(targets, offset[i], offset[i + 1]));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static List<Integer> boxed(int[] targets, int from, int to) {
+        List<Integer> list = new ArrayList<>(to - from);
+        for (int k = from; k < to; k++) {
+            list.add(targets[k]);
+        }
+        return list;
+    }
+
     public static Builder builder() {
         return new Builder<>();
     }
 
+    /**
+     * 以稠密 int id 批量构建, 节点 i 的 id 即其下标
+     *
+     * @param nodes
+     * @param <T>
+     * @return
+     */
+    public static <T> BulkBuilder<T> bulkBuilder(T[] nodes) {
+        return new BulkBuilder<>(nodes);
+    }
+
+    /**
+     * 以稠密 int id 批量构建, 节点即 id 本身 0 ~ nodeCount - 1
+     *
+     * @param nodeCount
+     * @return
+     */
+    public static BulkBuilder<Integer> bulkBuilder(int nodeCount) {
+        Integer[] nodes = new Integer[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = i;
+        }
+        return new BulkBuilder<>(nodes);
+    }
+
     /**
      * 非线程安全的 Graph 构造器
      *
@@ -205,6 +653,12 @@ public class Graph<T> {
 
         private List<Edge<T>> edges = new ArrayList<>();
 
+        private Map<T, Long> costMap = new HashMap<>();
+
+        private Map<T, String> resourceMap = new HashMap<>();
+
+        private Map<T, Long> outputSizeMap = new HashMap<>();
+
         /**
          * 添加一个节点
          *
@@ -216,6 +670,60 @@ public class Graph<T> {
             return this;
         }
 
+        /**
+         * 添加一个节点并指定预估执行代价, 用于关键路径优先调度
+         *
+         * @param node
+         * @param cost
+         * @return
+         */
+        public Builder<T> addNode(T node, long cost) {
+            addNode(node);
+            return cost(node, cost);
+        }
+
+        /**
+         * 指定节点的预估执行代价, 代价单位由调用方自行约定, 只需彼此可比
+         *
+         * @param node
+         * @param cost
+         * @return
+         */
+        public Builder<T> cost(T node, long cost) {
+            if (cost < 0) {
+                throw new IllegalArgumentException("cost must not be negative: " + cost);
+            }
+            costMap.put(node, cost);
+            return this;
+        }
+
+        /**
+         * 指定节点的资源类别, 如 cpu、io、db, 由 {@link com.github.dag.core.ExecutionPlan.Builder} 为每个类别配置独立的线程池或并发上限
+         *
+         * @param node
+         * @param resource
+         * @return
+         */
+        public Builder<T> resource(T node, String resource) {
+            resourceMap.put(node, resource);
+            return this;
+        }
+
+        /**
+         * 指定节点输出的预估字节数, 供 {@link com.github.dag.core.ExecutionPlan.Builder#memoryBudget(long)} 调度使用, 未指定的节点视为 0
+         *
+         * @param node
+         * @param bytes
+         * @return
+         */
+        public Builder<T> outputSize(T node, long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("output size must not be negative: " + bytes);
+            }
+            outputSizeMap.put(node, bytes);
+            return this;
+        }
+
         /**
          * 添加一批节点
          *
@@ -246,45 +754,262 @@ public class Graph<T> {
 
         public Graph<T> build() {
             T[] nodes = (T[]) new Object[idx];
-            nodeMap.forEach((node, index) -> nodes[index] = node);
-            int[] inDegree = new int[idx];
-            int[] outDegree = new int[idx];
-            List<Integer>[] adjacencyList = new List[idx];
-            List<Integer>[] reverseAdjacencyList = new List[idx];
-            for (Edge<T> edge : edges) {
+            long[] cost = new long[idx];
+            String[] resource = resourceMap.isEmpty() ? null : new String[idx];
+            long[] outputSize = outputSizeMap.isEmpty() ? null : new long[idx];
+            nodeMap.forEach((node, index) -> {
+                nodes[index] = node;
+                cost[index] = costMap.getOrDefault(node, DEFAULT_COST);
+                if (resource != null) {
+                    resource[index] = resourceMap.get(node);
+                }
+                if (outputSize != null) {
+                    outputSize[index] = outputSizeMap.getOrDefault(node, 0L);
+                }
+            });
+            int edgeCount = edges.size();
+            int[] from = new int[edgeCount];
+            int[] to = new int[edgeCount];
+            // 第一遍: 解析边的端点并统计出度
+            int[] adjacencyOffset = new int[idx + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                Edge<T> edge = edges.get(e);
                 Integer fromIdx = nodeMap.get(edge.getFrom());
                 Integer toIdx = nodeMap.get(edge.getTo());
-                assert fromIdx != null;
-                assert toIdx != null;
-                // 入度表加 1
-                inDegree[toIdx]++;
-                // 出度表加 1
-                outDegree[fromIdx]++;
-                // 邻接表添加后继节点索引
-                List<Integer> adj = adjacencyList[fromIdx];
-                if (adj == null) {
-                    adj = new ArrayList<>();
-                    adjacencyList[fromIdx] = adj;
+                if (fromIdx == null || toIdx == null) {
+                    throw new IllegalArgumentException("edge " + edge.getFrom() + " -> " + edge.getTo() + " references unknown node");
+                }
+                from[e] = fromIdx;
+                to[e] = toIdx;
+                adjacencyOffset[fromIdx + 1]++;
+            }
+            for (int i = 0; i < idx; i++) {
+                adjacencyOffset[i + 1] += adjacencyOffset[i];
+            }
+            // 第二遍: 按添加顺序放置后继节点
+            int[] adjacency = new int[edgeCount];
+            int[] cursor = Arrays.copyOf(adjacencyOffset, idx);
+            for (int e = 0; e < edgeCount; e++) {
+                adjacency[cursor[from[e]]++] = to[e];
+            }
+            Graph<T> graph = new Graph<>(nodes, adjacencyOffset, adjacency, cost);
+            graph.resource = resource;
+            graph.outputSize = outputSize;
+            return graph;
+        }
+    }
+
+    /**
+     * 面向大图的非线程安全批量构造器: 节点以稠密 int id(即下标)标识, 边以原始 int 数组追加, 不装箱、不逐边分配对象.
+     * <p>
+     * build() 以两遍计数构建 CSR: 先统计出度并校验端点, 前缀和后按出度放置后继, 再对每个节点的后继排序并拒绝重复边.
+     * 因此同一节点的后继按 id 升序排列, 与边的添加顺序无关, 串行与并行构建结果完全一致.
+     * 开启 {@link #parallel()} 后三个阶段均在 ForkJoin 公共池上按边或节点分片并行
+     *
+     * @param <T>
+     */
+    public static class BulkBuilder<T> {
+
+        private final T[] nodes;
+
+        private final long[] cost;
+
+        private int[] from = new int[16];
+
+        private int[] to = new int[16];
+
+        private int edgeCount;
+
+        private boolean parallel;
+
+        private String[] resource;
+
+        private long[] outputSize;
+
+        private BulkBuilder(T[] nodes) {
+            this.nodes = nodes;
+            this.cost = new long[nodes.length];
+            Arrays.fill(cost, DEFAULT_COST);
+        }
+
+        /**
+         * 添加一条边, 端点在 build 时校验
+         *
+         * @param from
+         * @param to
+         * @return
+         */
+        public BulkBuilder<T> addEdge(int from, int to) {
+            ensureCapacity(edgeCount + 1);
+            this.from[edgeCount] = from;
+            this.to[edgeCount++] = to;
+            return this;
+        }
+
+        /**
+         * 批量添加边, 第 e 条边为 from[e] -> to[e]
+         *
+         * @param from
+         * @param to
+         * @return
+         */
+        public BulkBuilder<T> addEdges(int[] from, int[] to) {
+            if (from.length != to.length) {
+                throw new IllegalArgumentException("from and to must have the same length: " + from.length + " != " + to.length);
+            }
+            ensureCapacity(edgeCount + from.length);
+            System.arraycopy(from, 0, this.from, edgeCount, from.length);
+            System.arraycopy(to, 0, this.to, edgeCount, to.length);
+            edgeCount += from.length;
+            return this;
+        }
+
+        /**
+         * 指定节点的预估执行代价, 见 {@link Builder#cost(Object, long)}
+         *
+         * @param id
+         * @param cost
+         * @return
+         */
+        public BulkBuilder<T> cost(int id, long cost) {
+            if (cost < 0) {
+                throw new IllegalArgumentException("cost must not be negative: " + cost);
+            }
+            this.cost[id] = cost;
+            return this;
+        }
+
+        /**
+         * 指定节点的资源类别, 见 {@link Builder#resource(Object, String)}
+         *
+         * @param id
+         * @param resource
+         * @return
+         */
+        public BulkBuilder<T> resource(int id, String resource) {
+            if (this.resource == null) {
+                this.resource = new String[nodes.length];
+            }
+            this.resource[id] = resource;
+            return this;
+        }
+
+        /**
+         * 指定节点输出的预估字节数, 见 {@link Builder#outputSize(Object, long)}
+         *
+         * @param id
+         * @param bytes
+         * @return
+         */
+        public BulkBuilder<T> outputSize(int id, long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("output size must not be negative: " + bytes);
+            }
+            if (this.outputSize == null) {
+                this.outputSize = new long[nodes.length];
+            }
+            this.outputSize[id] = bytes;
+            return this;
+        }
+
+        /**
+         * 并行计数与放置, 边数达到百万级时才有明显收益
+         *
+         * @return
+         */
+        public BulkBuilder<T> parallel() {
+            this.parallel = true;
+            return this;
+        }
+
+        /**
+         * @return
+         * @throws IllegalArgumentException 边的端点不是合法的节点 id, 或存在重复边
+         */
+        public Graph<T> build() {
+            int n = nodes.length;
+            int[] adjacencyOffset = new int[n + 1];
+            int[] adjacency = new int[edgeCount];
+            if (parallel) {
+                buildParallel(adjacencyOffset, adjacency);
+            } else {
+                // 第一遍: 校验端点并统计出度
+                for (int e = 0; e < edgeCount; e++) {
+                    checkEdge(e);
+                    adjacencyOffset[from[e] + 1]++;
                 }
-                adj.add(toIdx);
-                // 反向邻接表添加前置节点索引
-                List<Integer> reverseAdj = reverseAdjacencyList[toIdx];
-                if (reverseAdj == null) {
-                    reverseAdj = new ArrayList<>();
-                    reverseAdjacencyList[toIdx] = reverseAdj;
+                for (int i = 0; i < n; i++) {
+                    adjacencyOffset[i + 1] += adjacencyOffset[i];
                 }
-                reverseAdj.add(fromIdx);
+                // 第二遍: 放置后继
+                int[] cursor = Arrays.copyOf(adjacencyOffset, n);
+                for (int e = 0; e < edgeCount; e++) {
+                    adjacency[cursor[from[e]]++] = to[e];
+                }
+                sortAndCheckDuplicates(adjacencyOffset, adjacency, 0, n);
             }
+            Graph<T> graph = new Graph<>(nodes, adjacencyOffset, adjacency, cost);
+            graph.resource = resource;
+            graph.outputSize = outputSize;
+            return graph;
+        }
 
-            // 入度为 0 的节点
-            List<Integer> zeroDegreeIdx = new ArrayList<>();
-            for (int i = 0; i < inDegree.length; i++) {
-                if (inDegree[i] == 0) {
-                    zeroDegreeIdx.add(i);
+        private void buildParallel(int[] adjacencyOffset, int[] adjacency) {
+            int n = nodes.length;
+            int chunks = Math.max(1, Runtime.getRuntime().availableProcessors() * 4);
+            int edgeChunk = (edgeCount + chunks - 1) / chunks;
+            AtomicIntegerArray degree = new AtomicIntegerArray(n);
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                for (int e = c * edgeChunk, end = Math.min(edgeCount, e + edgeChunk); e < end; e++) {
+                    checkEdge(e);
+                    degree.incrementAndGet(from[e]);
                 }
+            });
+            for (int i = 0; i < n; i++) {
+                adjacencyOffset[i + 1] = adjacencyOffset[i] + degree.get(i);
             }
-            return new Graph<>(nodes, inDegree, adjacencyList, outDegree, reverseAdjacencyList, zeroDegreeIdx);
+            // 复用计数数组作为放置游标, 同一节点内的放置顺序不确定, 由随后的排序消除
+            for (int i = 0; i < n; i++) {
+                degree.lazySet(i, adjacencyOffset[i]);
+            }
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                for (int e = c * edgeChunk, end = Math.min(edgeCount, e + edgeChunk); e < end; e++) {
+                    adjacency[degree.getAndIncrement(from[e])] = to[e];
+                }
+            });
+            int nodeChunk = (n + chunks - 1) / chunks;
+            IntStream.range(0, chunks).parallel().forEach(c ->
+                    sortAndCheckDuplicates(adjacencyOffset, adjacency, Math.min(n, c * nodeChunk), Math.min(n, (c + 1) * nodeChunk)));
         }
-    }
 
+        private void checkEdge(int e) {
+            int n = nodes.length;
+            if (from[e] < 0 || from[e] >= n || to[e] < 0 || to[e] >= n) {
+                throw new IllegalArgumentException("edge " + from[e] + " -> " + to[e] + " references unknown node, node count " + n);
+            }
+        }
+
+        private static void sortAndCheckDuplicates(int[] adjacencyOffset, int[] adjacency, int begin, int end) {
+            for (int i = begin; i < end; i++) {
+                int lo = adjacencyOffset[i];
+                int hi = adjacencyOffset[i + 1];
+                if (hi - lo > 1) {
+                    Arrays.sort(adjacency, lo, hi);
+                    for (int k = lo + 1; k < hi; k++) {
+                        if (adjacency[k] == adjacency[k - 1]) {
+                            throw new IllegalArgumentException("duplicate edge " + i + " -> " + adjacency[k]);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > from.length) {
+                int newCapacity = Math.max(capacity, from.length + (from.length >> 1));
+                from = Arrays.copyOf(from, newCapacity);
+                to = Arrays.copyOf(to, newCapacity);
+            }
+        }
+    }
 }
@@ -0,0 +1,246 @@
+package com.github.dag.core.graph;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 图的拓扑分析结果, 由 {@link Graph#analyze()} 生成.
+ * <p>
+ * 以逐层同步的 Kahn 遍历计算: 每一层的前沿节点在 ForkJoin 池上分片并行处理, 对后继做原子入度递减,
+ * 入度减到 0 的后继构成下一层前沿. 节点的层号即从源点出发的最长路径边数, 层数即深度, 最宽一层的节点数即最大并行度,
+ * 可据此确定线程池大小. 图中有环时给出一个实际的环
+ *
+ * @param <T>
+ */
+@Getter
+public class GraphAnalysis<T> {
+
+    /**
+     * 单个任务处理的前沿节点数下限, 小于该值的层直接在当前线程处理
+     */
+    private static final int GRAIN = 1024;
+
+    /**
+     * 节点层号, 源点为 0; 位于环上或环下游而无法排序的节点为 -1
+     */
+    private final int[] level;
+
+    /**
+     * 每一层的节点数
+     */
+    private final int[] levelWidth;
+
+    /**
+     * 层数, 即最长路径上的节点数
+     */
+    private final int depth;
+
+    /**
+     * 最宽一层的节点数, 即不考虑代价时可同时执行的最大节点数
+     */
+    private final int maxWidth;
+
+    /**
+     * 按节点代价加权的最长路径长度, 即执行耗时的下界
+     */
+    private final long criticalPathLength;
+
+    /**
+     * 图中的一个环, 按边的方向排列, 末节点指向首节点; 无环时为空列表
+     */
+    private final List<T> cycle;
+
+    private GraphAnalysis(int[] level, int[] levelWidth, long criticalPathLength, List<T> cycle) {
+        this.level = level;
+        this.levelWidth = levelWidth;
+        this.depth = levelWidth.length;
+        int maxWidth = 0;
+        for (int width : levelWidth) {
+            maxWidth = Math.max(maxWidth, width);
+        }
+        this.maxWidth = maxWidth;
+        this.criticalPathLength = criticalPathLength;
+        this.cycle = cycle;
+    }
+
+    public boolean isDAG() {
+        return cycle.isEmpty();
+    }
+
+    /**
+     * @param graph
+     * @param pool  分片任务运行的池
+     * @param <T>
+     * @return
+     */
+    static <T> GraphAnalysis<T> analyze(Graph<T> graph, ForkJoinPool pool) {
+        int n = graph.getNodes().length;
+        int[] level = new int[n];
+        Arrays.fill(level, -1);
+        long[] top = new long[n];
+        AtomicIntegerArray inDegree = new AtomicIntegerArray(graph.getInDegree());
+        int[] frontier = Arrays.copyOf(graph.getZeroDegreeIdx(), n);
+        int frontierSize = graph.getZeroDegreeIdx().length;
+        int[] next = new int[n];
+        AtomicInteger nextSize = new AtomicInteger();
+        List<Integer> widths = new ArrayList<>();
+        long criticalPathLength = 0;
+        int visited = 0;
+        while (frontierSize > 0) {
+            nextSize.set(0);
+            Expand expand = new Expand(graph, widths.size(), frontier, 0, frontierSize, next, nextSize, level, top, inDegree);
+            if (frontierSize <= GRAIN) {
+                expand.compute();
+            } else {
+                pool.invoke(expand);
+            }
+            criticalPathLength = Math.max(criticalPathLength, expand.maxTop);
+            widths.add(frontierSize);
+            visited += frontierSize;
+            int[] swap = frontier;
+            frontier = next;
+            next = swap;
+            frontierSize = nextSize.get();
+        }
+        int[] levelWidth = new int[widths.size()];
+        for (int i = 0; i < levelWidth.length; i++) {
+            levelWidth[i] = widths.get(i);
+        }
+        List<T> cycle = visited == n ? Collections.emptyList() : findCycle(graph, level);
+        return new GraphAnalysis<>(level, levelWidth, criticalPathLength, cycle);
+    }
+
+    /**
+     * 未能排序的节点都至少有一个同样未排序的前置节点, 沿反向邻接表不断回溯必然重复到达某个节点, 两次到达之间即为一个环
+     *
+     * @param graph
+     * @param level
+     * @param <T>
+     * @return
+     */
+    private static <T> List<T> findCycle(Graph<T> graph, int[] level) {
+        int start = 0;
+        while (level[start] >= 0) {
+            start++;
+        }
+        // 复用 level 记录回溯步数, 未排序节点的 level 均为 -1, 记为 -2 - step 以示区分
+        int[] reverseAdjacency = graph.getReverseAdjacency();
+        List<Integer> path = new ArrayList<>();
+        int current = start;
+        while (level[current] == -1) {
+            level[current] = -2 - path.size();
+            path.add(current);
+            int pre = -1;
+            for (int k = graph.reverseAdjacencyBegin(current), end = graph.reverseAdjacencyEnd(current); k < end; k++) {
+                if (level[reverseAdjacency[k]] < 0) {
+                    pre = reverseAdjacency[k];
+                    break;
+                }
+            }
+            current = pre;
+        }
+        int from = -2 - level[current];
+        List<T> cycle = new ArrayList<>(path.size() - from);
+        for (int i = path.size() - 1; i >= from; i--) {
+            cycle.add(graph.getNodeByIdx(path.get(i)));
+        }
+        for (int idx : path) {
+            level[idx] = -1;
+        }
+        return cycle;
+    }
+
+    /**
+     * 处理前沿 [begin, end): 记录层号与加权路径长度, 后继入度减 1, 减到 0 的后继批量追加到下一层前沿
+     */
+    private static final class Expand extends RecursiveAction {
+
+        private final Graph<?> graph;
+
+        private final int depth;
+
+        private final int[] frontier;
+
+        private final int begin;
+
+        private final int end;
+
+        private final int[] next;
+
+        private final AtomicInteger nextSize;
+
+        private final int[] level;
+
+        private final long[] top;
+
+        private final AtomicIntegerArray inDegree;
+
+        private long maxTop;
+
+        Expand(Graph<?> graph, int depth, int[] frontier, int begin, int end, int[] next, AtomicInteger nextSize,
+               int[] level, long[] top, AtomicIntegerArray inDegree) {
+            this.graph = graph;
+            this.depth = depth;
+            this.frontier = frontier;
+            this.begin = begin;
+            this.end = end;
+            this.next = next;
+            this.nextSize = nextSize;
+            this.level = level;
+            this.top = top;
+            this.inDegree = inDegree;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin > GRAIN) {
+                int mid = (begin + end) >>> 1;
+                Expand left = new Expand(graph, depth, frontier, begin, mid, next, nextSize, level, top, inDegree);
+                Expand right = new Expand(graph, depth, frontier, mid, end, next, nextSize, level, top, inDegree);
+                invokeAll(left, right);
+                maxTop = Math.max(left.maxTop, right.maxTop);
+                return;
+            }
+            int[] adjacency = graph.getAdjacency();
+            int[] reverseAdjacency = graph.getReverseAdjacency();
+            long[] cost = graph.getCost();
+            int[] ready = new int[Math.min(64, end - begin + 1)];
+            int readySize = 0;
+            for (int f = begin; f < end; f++) {
+                int idx = frontier[f];
+                level[idx] = depth;
+                // 前置节点都在更早的层中, 其路径长度已在上一轮确定
+                long longest = 0;
+                for (int k = graph.reverseAdjacencyBegin(idx), e = graph.reverseAdjacencyEnd(idx); k < e; k++) {
+                    longest = Math.max(longest, top[reverseAdjacency[k]]);
+                }
+                top[idx] = longest + cost[idx];
+                maxTop = Math.max(maxTop, top[idx]);
+                for (int k = graph.adjacencyBegin(idx), e = graph.adjacencyEnd(idx); k < e; k++) {
+                    if (inDegree.decrementAndGet(adjacency[k]) == 0) {
+                        if (readySize == ready.length) {
+                            flush(ready, readySize);
+                            readySize = 0;
+                        }
+                        ready[readySize++] = adjacency[k];
+                    }
+                }
+            }
+            flush(ready, readySize);
+        }
+
+        private void flush(int[] ready, int size) {
+            if (size > 0) {
+                System.arraycopy(ready, 0, next, nextSize.getAndAdd(size), size);
+            }
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.github.dag.core.graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * 图拓扑的二进制文件格式, 以 {@link FileChannel#map} 只读映射加载, 多个进程可共享同一份页缓存.
+ * <p>
+ * 文件保存 CSR 邻接表与反向邻接表、入度/出度、入度为 0 的节点、代价、bottom level, 以及可选的资源类别与输出字节数,
+ * 均为编译好的最终形态, 加载时不再重建. 节点本身不入文件, 只保存调用方给出的 int id, 加载时由 resolver 解析回节点.
+ * 对 {@link Graph#chaining()} / {@link Graph#fuse(long)} 产生的 stage 图, 额外保存每个 stage 的成员 id(stage 映射).
+ * <p>
+ * 各数组以小端序、8 字节对齐依次存放, {@link #adjacency()} 等方法直接返回映射区上的零拷贝视图;
+ * {@link #toGraph(IntFunction)} / {@link #toStageGraph(IntFunction)} 把数组拷贝到堆上构造 {@link Graph} 供执行计划使用,
+ * 开销为一次顺序内存拷贝, 不做排序、去重与拓扑计算
+ */
+public class GraphFile {
+
+    private static final int MAGIC = 0x44414747;
+
+    private static final int VERSION = 1;
+
+    private static final int FLAG_STAGED = 1;
+
+    private static final int FLAG_RESOURCE = 2;
+
+    private static final int FLAG_OUTPUT_SIZE = 4;
+
+    /**
+     * magic, version, flags, 节点数, 边数, 成员数, 入度为 0 的节点数, 资源类别数
+     */
+    private static final int HEADER_SIZE = 32;
+
+    private final ByteBuffer buffer;
+
+    private final int flags;
+
+    private final int nodeCount;
+
+    private final int edgeCount;
+
+    private final int memberCount;
+
+    private final int zeroCount;
+
+    private final int resourceCount;
+
+    private final Sections sections;
+
+    private GraphFile(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("not a graph file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("unsupported graph file version: " + buffer.getInt(4));
+        }
+        this.flags = buffer.getInt(8);
+        this.nodeCount = buffer.getInt(12);
+        this.edgeCount = buffer.getInt(16);
+        this.memberCount = buffer.getInt(20);
+        this.zeroCount = buffer.getInt(24);
+        this.resourceCount = buffer.getInt(28);
+        this.sections = new Sections(flags, nodeCount, edgeCount, memberCount, zeroCount);
+        if (buffer.capacity() < sections.end) {
+            throw new IllegalStateException("truncated graph file: " + buffer.capacity() + " < " + sections.end);
+        }
+    }
+
+    /**
+     * 只读映射图文件
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     * @throws IllegalStateException 不是图文件, 版本不支持或文件不完整
+     */
+    public static GraphFile map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // 映射在通道关闭后依然有效
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new GraphFile(buffer);
+        }
+    }
+
+    /**
+     * 写入普通图
+     *
+     * @param graph
+     * @param path
+     * @param idOf  节点 -> id, 加载时由 resolver 解析回节点
+     * @param <T>
+     * @throws IOException
+     */
+    public static <T> void write(Graph<T> graph, Path path, ToIntFunction<T> idOf) throws IOException {
+        T[] nodes = graph.getNodes();
+        int[] ids = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            ids[i] = idOf.applyAsInt(nodes[i]);
+        }
+        write(graph, path, ids, null);
+    }
+
+    /**
+     * 写入 stage 图及其 stage 映射
+     *
+     * @param stages {@link Graph#chaining()} 或 {@link Graph#fuse(long)} 的结果
+     * @param path
+     * @param idOf   原图节点 -> id
+     * @param <T>
+     * @throws IOException
+     */
+    public static <T> void writeStages(Graph<List<T>> stages, Path path, ToIntFunction<T> idOf) throws IOException {
+        List<T>[] nodes = stages.getNodes();
+        int[] stageOffset = new int[nodes.length + 1];
+        for (int s = 0; s < nodes.length; s++) {
+            stageOffset[s + 1] = stageOffset[s] + nodes[s].size();
+        }
+        int[] ids = new int[stageOffset[nodes.length]];
+        for (int s = 0, p = 0; s < nodes.length; s++) {
+            for (T node : nodes[s]) {
+                ids[p++] = idOf.applyAsInt(node);
+            }
+        }
+        write(stages, path, ids, stageOffset);
+    }
+
+    private static void write(Graph<?> graph, Path path, int[] ids, int[] stageOffset) throws IOException {
+        int n = graph.getNodes().length;
+        String[] resource = graph.getResource();
+        List<String> resources = new ArrayList<>();
+        int[] resourceIdx = null;
+        if (resource != null) {
+            Map<String, Integer> table = new HashMap<>();
+            resourceIdx = new int[n];
+            for (int i = 0; i < n; i++) {
+                resourceIdx[i] = resource[i] == null ? -1 : table.computeIfAbsent(resource[i], r -> {
+                    resources.add(r);
+                    return resources.size() - 1;
+                });
+            }
+        }
+        int flags = (stageOffset != null ? FLAG_STAGED : 0) | (resource != null ? FLAG_RESOURCE : 0)
+                | (graph.hasOutputSize() ? FLAG_OUTPUT_SIZE : 0);
+        Sections sections = new Sections(flags, n, graph.getAdjacency().length, ids.length, graph.getZeroDegreeIdx().length);
+        List<byte[]> names = new ArrayList<>();
+        long size = sections.end;
+        for (String r : resources) {
+            byte[] bytes = r.getBytes(StandardCharsets.UTF_8);
+            names.add(bytes);
+            size += 4 + bytes.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("graph too large for a single mapping: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(flags).putInt(n).putInt(graph.getAdjacency().length)
+                .putInt(ids.length).putInt(graph.getZeroDegreeIdx().length).putInt(resources.size());
+        putInts(buffer, sections.ids, ids);
+        if (stageOffset != null) {
+            putInts(buffer, sections.stageOffset, stageOffset);
+        }
+        putInts(buffer, sections.adjacencyOffset, graph.getAdjacencyOffset());
+        putInts(buffer, sections.adjacency, graph.getAdjacency());
+        putInts(buffer, sections.reverseAdjacencyOffset, graph.getReverseAdjacencyOffset());
+        putInts(buffer, sections.reverseAdjacency, graph.getReverseAdjacency());
+        putInts(buffer, sections.inDegree, graph.getInDegree());
+        putInts(buffer, sections.outDegree, graph.getOutDegree());
+        putInts(buffer, sections.zeroDegreeIdx, graph.getZeroDegreeIdx());
+        putLongs(buffer, sections.cost, graph.getCost());
+        putLongs(buffer, sections.bottomLevel, graph.getBottomLevel());
+        if (graph.hasOutputSize()) {
+            putLongs(buffer, sections.outputSize, graph.getOutputSize());
+        }
+        if (resourceIdx != null) {
+            putInts(buffer, sections.resourceIdx, resourceIdx);
+        }
+        buffer.position(sections.end);
+        for (byte[] bytes : names) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static void putInts(ByteBuffer buffer, int offset, int[] values) {
+        buffer.position(offset);
+        buffer.asIntBuffer().put(values);
+    }
+
+    private static void putLongs(ByteBuffer buffer, int offset, long[] values) {
+        buffer.position(offset);
+        buffer.asLongBuffer().put(values);
+    }
+
+    public boolean isStaged() {
+        return (flags & FLAG_STAGED) != 0;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public IntBuffer adjacencyOffset() {
+        return ints(sections.adjacencyOffset, nodeCount + 1);
+    }
+
+    public IntBuffer adjacency() {
+        return ints(sections.adjacency, edgeCount);
+    }
+
+    public IntBuffer reverseAdjacencyOffset() {
+        return ints(sections.reverseAdjacencyOffset, nodeCount + 1);
+    }
+
+    public IntBuffer reverseAdjacency() {
+        return ints(sections.reverseAdjacency, edgeCount);
+    }
+
+    public IntBuffer inDegree() {
+        return ints(sections.inDegree, nodeCount);
+    }
+
+    public IntBuffer outDegree() {
+        return ints(sections.outDegree, nodeCount);
+    }
+
+    public LongBuffer cost() {
+        return longs(sections.cost, nodeCount);
+    }
+
+    /**
+     * 节点 id; stage 图为各 stage 成员的 id, 按 stage 顺序紧凑存放, 第 s 个 stage 的成员为 [stageOffset[s], stageOffset[s + 1])
+     *
+     * @return
+     */
+    public IntBuffer ids() {
+        return ints(sections.ids, memberCount);
+    }
+
+    /**
+     * stage 成员在 {@link #ids()} 中的偏移, 长度为 stage 数 + 1; 普通图为 null
+     *
+     * @return
+     */
+    public IntBuffer stageOffset() {
+        return isStaged() ? ints(sections.stageOffset, nodeCount + 1) : null;
+    }
+
+    private IntBuffer ints(int offset, int length) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(offset).limit(offset + 4 * length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    private LongBuffer longs(int offset, int length) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(offset).limit(offset + 8 * length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    /**
+     * 构造普通图
+     *
+     * @param resolver id -> 节点
+     * @param <T>
+     * @return
+     * @throws IllegalStateException 文件保存的是 stage 图
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Graph<T> toGraph(IntFunction<T> resolver) {
+        if (isStaged()) {
+            throw new IllegalStateException("graph file holds a stage graph, use toStageGraph");
+        }
+        IntBuffer ids = ids();
+        T[] nodes = (T[]) new Object[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = resolver.apply(ids.get(i));
+        }
+        return materialize(nodes);
+    }
+
+    /**
+     * 构造 stage 图, 每个 stage 的成员由 resolver 解析
+     *
+     * @param resolver 原图节点 id -> 节点
+     * @param <T>
+     * @return
+     * @throws IllegalStateException 文件保存的是普通图
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Graph<List<T>> toStageGraph(IntFunction<T> resolver) {
+        if (!isStaged()) {
+            throw new IllegalStateException("graph file holds a plain graph, use toGraph");
+        }
+        IntBuffer ids = ids();
+        IntBuffer stageOffset = stageOffset();
+        List<T>[] stages = new List[nodeCount];
+        for (int s = 0; s < nodeCount; s++) {
+            int begin = stageOffset.get(s);
+            int end = stageOffset.get(s + 1);
+            List<T> members = new ArrayList<>(end - begin);
+            for (int m = begin; m < end; m++) {
+                members.add(resolver.apply(ids.get(m)));
+            }
+            stages[s] = members;
+        }
+        return materialize(stages);
+    }
+
+    private <T> Graph<T> materialize(T[] nodes) {
+        Graph<T> graph = new Graph<>(nodes,
+                toArray(adjacencyOffset()), toArray(adjacency()),
+                toArray(reverseAdjacencyOffset()), toArray(reverseAdjacency()),
+                toArray(inDegree()), toArray(outDegree()),
+                toArray(ints(sections.zeroDegreeIdx, zeroCount)),
+                toArray(cost()), toArray(longs(sections.bottomLevel, nodeCount)));
+        if ((flags & FLAG_OUTPUT_SIZE) != 0) {
+            graph.setOutputSize(toArray(longs(sections.outputSize, nodeCount)));
+        }
+        if ((flags & FLAG_RESOURCE) != 0) {
+            graph.setResource(resources());
+        }
+        return graph;
+    }
+
+    private String[] resources() {
+        String[] table = new String[resourceCount];
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(sections.end);
+        for (int r = 0; r < resourceCount; r++) {
+            byte[] bytes = new byte[view.getInt()];
+            view.get(bytes);
+            table[r] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        IntBuffer resourceIdx = ints(sections.resourceIdx, nodeCount);
+        String[] resource = new String[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            int r = resourceIdx.get(i);
+            resource[i] = r < 0 ? null : table[r];
+        }
+        return resource;
+    }
+
+    private static int[] toArray(IntBuffer buffer) {
+        int[] array = new int[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+
+    private static long[] toArray(LongBuffer buffer) {
+        long[] array = new long[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        return "GraphFile(nodeCount=" + nodeCount + ", edgeCount=" + edgeCount + ", staged=" + isStaged() + ")";
+    }
+
+    /**
+     * 各段的起始字节偏移, 读写两端按相同的规则计算; 每段按 8 字节对齐
+     */
+    private static final class Sections {
+
+        private final int ids;
+
+        private final int stageOffset;
+
+        private final int adjacencyOffset;
+
+        private final int adjacency;
+
+        private final int reverseAdjacencyOffset;
+
+        private final int reverseAdjacency;
+
+        private final int inDegree;
+
+        private final int outDegree;
+
+        private final int zeroDegreeIdx;
+
+        private final int cost;
+
+        private final int bottomLevel;
+
+        private final int outputSize;
+
+        private final int resourceIdx;
+
+        /**
+         * 定长段之后的位置, 其后为资源类别的字符串表
+         */
+        private final int end;
+
+        Sections(int flags, int nodeCount, int edgeCount, int memberCount, int zeroCount) {
+            long p = HEADER_SIZE;
+            ids = (int) p;
+            p = align(p + 4L * memberCount);
+            stageOffset = (int) p;
+            if ((flags & FLAG_STAGED) != 0) {
+                p = align(p + 4L * (nodeCount + 1));
+            }
+            adjacencyOffset = (int) p;
+            p = align(p + 4L * (nodeCount + 1));
+            adjacency = (int) p;
+            p = align(p + 4L * edgeCount);
+            reverseAdjacencyOffset = (int) p;
+            p = align(p + 4L * (nodeCount + 1));
+            reverseAdjacency = (int) p;
+            p = align(p + 4L * edgeCount);
+            inDegree = (int) p;
+            p = align(p + 4L * nodeCount);
+            outDegree = (int) p;
+            p = align(p + 4L * nodeCount);
+            zeroDegreeIdx = (int) p;
+            p = align(p + 4L * zeroCount);
+            cost = (int) p;
+            p += 8L * nodeCount;
+            bottomLevel = (int) p;
+            p += 8L * nodeCount;
+            outputSize = (int) p;
+            if ((flags & FLAG_OUTPUT_SIZE) != 0) {
+                p += 8L * nodeCount;
+            }
+            resourceIdx = (int) p;
+            if ((flags & FLAG_RESOURCE) != 0) {
+                p = align(p + 4L * nodeCount);
+            }
+            if (p > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("graph too large for a single mapping: " + p + " bytes");
+            }
+            end = (int) p;
+        }
+
+        private static long align(long p) {
+            return (p + 7) & ~7L;
+        }
+    }
+}
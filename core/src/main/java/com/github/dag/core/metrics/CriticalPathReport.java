@@ -0,0 +1,69 @@
+package com.github.dag.core.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 一次执行的实际关键路径, 由 {@link ExecutionRecorder#criticalPath()} 生成
+ */
+@Data
+@AllArgsConstructor
+public class CriticalPathReport {
+
+    /**
+     * 按执行先后排列的关键路径节点
+     */
+    private List<Step> steps;
+
+    /**
+     * 整次执行耗时(纳秒)
+     */
+    private long totalNanos;
+
+    /**
+     * 关键路径上的排队等待总耗时(纳秒), 线程池不足或调度开销会体现在这里
+     *
+     * @return
+     */
+    public long getQueueWaitNanos() {
+        long sum = 0;
+        for (Step step : steps) {
+            sum += step.getQueueWaitNanos();
+        }
+        return sum;
+    }
+
+    /**
+     * 关键路径上的节点执行总耗时(纳秒)
+     *
+     * @return
+     */
+    public long getRunNanos() {
+        long sum = 0;
+        for (Step step : steps) {
+            sum += step.getRunNanos();
+        }
+        return sum;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Step {
+
+        private int idx;
+
+        private Object node;
+
+        /**
+         * 提交到开始执行的等待(纳秒)
+         */
+        private long queueWaitNanos;
+
+        /**
+         * 开始到执行完成的耗时(纳秒)
+         */
+        private long runNanos;
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.dag.core.metrics;
+
+import com.github.dag.core.ExecutionListener;
+import com.github.dag.core.graph.Graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 内置的低开销执行记录器.
+ * <p>
+ * 跨多次执行累计每个节点的排队等待(提交到开始)与执行耗时(开始到结束)直方图、重试次数与退避时间, 以及整次执行的耗时直方图;
+ * 同时保留最近一次执行的各节点时间戳, 执行结束后可通过 {@link #criticalPath()} 还原实际关键路径.
+ * 节点直方图在节点首次执行时创建, 同一计划并发执行时时间戳会相互覆盖, 关键路径仅在串行执行时有意义
+ */
+public class ExecutionRecorder implements ExecutionListener {
+
+    private static final long NOT_FINISHED = Long.MIN_VALUE;
+
+    private final Graph<?> graph;
+
+    private final AtomicReferenceArray<LatencyHistogram> queueWait;
+
+    private final AtomicReferenceArray<LatencyHistogram> runTime;
+
+    private final LatencyHistogram execution = new LatencyHistogram();
+
+    private final AtomicLongArray retries;
+
+    private final AtomicLongArray retryBackoffNanos;
+
+    private final long[] submitNanos;
+
+    private final long[] startNanos;
+
+    private final long[] finishNanos;
+
+    private volatile long executionStartNanos;
+
+    private volatile long executionFinishNanos;
+
+    public ExecutionRecorder(Graph<?> graph) {
+        int n = graph.getNodes().length;
+        this.graph = graph;
+        this.queueWait = new AtomicReferenceArray<>(n);
+        this.runTime = new AtomicReferenceArray<>(n);
+        this.retries = new AtomicLongArray(n);
+        this.retryBackoffNanos = new AtomicLongArray(n);
+        this.submitNanos = new long[n];
+        this.startNanos = new long[n];
+        this.finishNanos = new long[n];
+        Arrays.fill(finishNanos, NOT_FINISHED);
+    }
+
+    @Override
+    public void onExecutionStarted(long nanoTime) {
+        Arrays.fill(finishNanos, NOT_FINISHED);
+        executionStartNanos = nanoTime;
+    }
+
+    @Override
+    public void onNodeSubmitted(int idx, long nanoTime) {
+        submitNanos[idx] = nanoTime;
+    }
+
+    @Override
+    public void onNodeStarted(int idx, long nanoTime) {
+        startNanos[idx] = nanoTime;
+        histogram(queueWait, idx).record(nanoTime - submitNanos[idx]);
+    }
+
+    @Override
+    public void onNodeFinished(int idx, long nanoTime) {
+        finishNanos[idx] = nanoTime;
+        histogram(runTime, idx).record(nanoTime - startNanos[idx]);
+    }
+
+    @Override
+    public void onNodeRetry(int idx, int attempt, Throwable cause, long delayNanos, long nanoTime) {
+        retries.incrementAndGet(idx);
+        retryBackoffNanos.addAndGet(idx, delayNanos);
+    }
+
+    @Override
+    public void onExecutionFinished(Throwable cause, long nanoTime) {
+        executionFinishNanos = nanoTime;
+        execution.record(nanoTime - executionStartNanos);
+    }
+
+    /**
+     * 节点排队等待直方图, 节点未执行过时返回空直方图
+     *
+     * @param idx
+     * @return
+     */
+    public LatencyHistogram getQueueWait(int idx) {
+        LatencyHistogram histogram = queueWait.get(idx);
+        return histogram == null ? new LatencyHistogram() : histogram;
+    }
+
+    /**
+     * 节点执行耗时直方图, 节点未执行过时返回空直方图
+     *
+     * @param idx
+     * @return
+     */
+    public LatencyHistogram getRunTime(int idx) {
+        LatencyHistogram histogram = runTime.get(idx);
+        return histogram == null ? new LatencyHistogram() : histogram;
+    }
+
+    /**
+     * 节点累计的重试次数, 即失败后被重新执行的次数; 失败的执行不计入执行耗时直方图
+     *
+     * @param idx
+     * @return
+     */
+    public long getRetryCount(int idx) {
+        return retries.get(idx);
+    }
+
+    /**
+     * 节点重试前累计等待的退避时间(纳秒)
+     *
+     * @param idx
+     * @return
+     */
+    public long getRetryBackoffNanos(int idx) {
+        return retryBackoffNanos.get(idx);
+    }
+
+    /**
+     * 整次执行(从开始到全部完成或首个失败)耗时直方图, 即调用方等待的时间
+     *
+     * @return
+     */
+    public LatencyHistogram getExecution() {
+        return execution;
+    }
+
+    /**
+     * 还原最近一次执行的实际关键路径: 从最后完成的节点出发, 逐步回溯到使其就绪的(最后完成的)前置节点
+     *
+     * @return
+     */
+    public CriticalPathReport criticalPath() {
+        int last = -1;
+        for (int i = 0; i < finishNanos.length; i++) {
+            if (finishNanos[i] != NOT_FINISHED && (last < 0 || finishNanos[i] > finishNanos[last])) {
+                last = i;
+            }
+        }
+        List<CriticalPathReport.Step> steps = new ArrayList<>();
+        int[] reverseAdjacency = graph.getReverseAdjacency();
+        int current = last;
+        while (current >= 0) {
+            steps.add(new CriticalPathReport.Step(current, graph.getNodeByIdx(current),
+                    startNanos[current] - submitNanos[current], finishNanos[current] - startNanos[current]));
+            int enabler = -1;
+            for (int k = graph.reverseAdjacencyBegin(current), end = graph.reverseAdjacencyEnd(current); k < end; k++) {
+                int pre = reverseAdjacency[k];
+                if (enabler < 0 || finishNanos[pre] > finishNanos[enabler]) {
+                    enabler = pre;
+                }
+            }
+            current = enabler;
+        }
+        Collections.reverse(steps);
+        return new CriticalPathReport(steps, executionFinishNanos - executionStartNanos);
+    }
+
+    private static LatencyHistogram histogram(AtomicReferenceArray<LatencyHistogram> histograms, int idx) {
+        LatencyHistogram histogram = histograms.get(idx);
+        if (histogram == null) {
+            histograms.compareAndSet(idx, null, new LatencyHistogram());
+            histogram = histograms.get(idx);
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,357 @@
+package com.github.dag.core.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 面向 DAG 执行的工作窃取调度器.
+ * <p>
+ * 每个工作线程持有一个本地双端队列: 工作线程内提交的任务(即节点完成后就绪的后继)压入自身队列头部并以 LIFO 取出,
+ * 使后继节点在输入数据仍在缓存中时执行; 空闲线程从其它线程队列尾部以 FIFO 窃取.
+ * 非工作线程提交的任务进入共享的入口队列. 与单一 LinkedBlockingQueue 的 FixedThreadPool 相比, 避免了所有线程争用同一个队列
+ */
+@Slf4j
+public class WorkStealingScheduler extends AbstractExecutorService {
+
+    /**
+     * 空闲线程的兜底休眠时间, 防止极端情况下丢失唤醒
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final Worker[] workers;
+
+    private final ConcurrentLinkedQueue<Runnable> inbound = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final CountDownLatch terminated;
+
+    private volatile boolean shutdown;
+
+    private final LongAdder localSubmitCount = new LongAdder();
+
+    private final LongAdder externalSubmitCount = new LongAdder();
+
+    private final LongAdder stealCount = new LongAdder();
+
+    private final LongAdder executedCount = new LongAdder();
+
+    public WorkStealingScheduler(int parallelism) {
+        this(parallelism, "dag-worker");
+    }
+
+    public WorkStealingScheduler(int parallelism, String threadNamePrefix) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.workers = new Worker[parallelism];
+        this.terminated = new CountDownLatch(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(i);
+        }
+        for (int i = 0; i < parallelism; i++) {
+            WorkerThread thread = new WorkerThread(workers[i], threadNamePrefix + "-" + i);
+            thread.setDaemon(true);
+            workers[i].thread = thread;
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("WorkStealingScheduler has been shut down");
+        }
+        Worker worker = currentWorker();
+        if (worker != null) {
+            // 工作线程内提交: 压入本地队列头部, 由本线程 LIFO 取出
+            worker.deque.addFirst(command);
+            localSubmitCount.increment();
+        } else {
+            inbound.offer(command);
+            externalSubmitCount.increment();
+        }
+        signalWork();
+    }
+
+    /**
+     * 工作线程数
+     *
+     * @return
+     */
+    public int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * 所有队列(各工作线程本地队列与入口队列)中等待执行的任务数, 遍历统计, 仅用于监控
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        int depth = inbound.size();
+        for (Worker worker : workers) {
+            depth += worker.deque.size();
+        }
+        return depth;
+    }
+
+    /**
+     * 指定工作线程本地队列中等待执行的任务数
+     *
+     * @param worker
+     * @return
+     */
+    public int getQueueDepth(int worker) {
+        return workers[worker].deque.size();
+    }
+
+    /**
+     * 共享入口队列中等待执行的任务数
+     *
+     * @return
+     */
+    public int getInboundQueueDepth() {
+        return inbound.size();
+    }
+
+    /**
+     * 从其它工作线程窃取到的任务数
+     *
+     * @return
+     */
+    public long getStealCount() {
+        return stealCount.sum();
+    }
+
+    /**
+     * 由工作线程提交到本地队列的任务数
+     *
+     * @return
+     */
+    public long getLocalSubmitCount() {
+        return localSubmitCount.sum();
+    }
+
+    /**
+     * 由外部线程提交到入口队列的任务数
+     *
+     * @return
+     */
+    public long getExternalSubmitCount() {
+        return externalSubmitCount.sum();
+    }
+
+    /**
+     * 已执行完毕的任务数
+     *
+     * @return
+     */
+    public long getExecutedCount() {
+        return executedCount.sum();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        List<Runnable> pending = new ArrayList<>();
+        Runnable r;
+        while ((r = inbound.poll()) != null) {
+            pending.add(r);
+        }
+        for (Worker worker : workers) {
+            while ((r = worker.deque.pollLast()) != null) {
+                pending.add(r);
+            }
+            worker.thread.interrupt();
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "WorkStealingScheduler(parallelism=" + workers.length
+                + ", queueDepth=" + getQueueDepth()
+                + ", localSubmit=" + getLocalSubmitCount()
+                + ", externalSubmit=" + getExternalSubmitCount()
+                + ", steal=" + getStealCount()
+                + ", executed=" + getExecutedCount() + ")";
+    }
+
+    private Worker currentWorker() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof WorkerThread) {
+            Worker worker = ((WorkerThread) thread).worker;
+            if (worker.owner() == this) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 有空闲线程时唤醒其中一个
+     */
+    private void signalWork() {
+        if (idleCount.get() == 0) {
+            return;
+        }
+        for (Worker worker : workers) {
+            if (worker.parked.compareAndSet(true, false)) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final int index;
+
+        private final ConcurrentLinkedDeque<Runnable> deque = new ConcurrentLinkedDeque<>();
+
+        private final AtomicBoolean parked = new AtomicBoolean();
+
+        private Thread thread;
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        WorkStealingScheduler owner() {
+            return WorkStealingScheduler.this;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable task = findTask();
+                    if (task == null) {
+                        if (shutdown) {
+                            return;
+                        }
+                        task = idle();
+                        if (task == null) {
+                            continue;
+                        }
+                    }
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        log.error("WorkStealingScheduler task failed on {}.", thread.getName(), t);
+                    } finally {
+                        executedCount.increment();
+                    }
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        /**
+         * 依次尝试本地队列(LIFO)、入口队列、窃取其它线程队列尾部(FIFO)
+         *
+         * @return
+         */
+        private Runnable findTask() {
+            Runnable task = deque.pollFirst();
+            if (task != null) {
+                return task;
+            }
+            task = inbound.poll();
+            if (task != null) {
+                return task;
+            }
+            int n = workers.length;
+            int start = ThreadLocalRandom.current().nextInt(n);
+            for (int i = 0; i < n; i++) {
+                Worker victim = workers[(start + i) % n];
+                if (victim != this) {
+                    task = victim.deque.pollLast();
+                    if (task != null) {
+                        stealCount.increment();
+                        return task;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 先登记为空闲再复查一次队列, 与 {@link #signalWork()} 的先入队后检查空闲相配合, 避免丢失唤醒
+         *
+         * @return
+         */
+        private Runnable idle() {
+            parked.set(true);
+            idleCount.incrementAndGet();
+            try {
+                Runnable task = findTask();
+                if (task == null && !shutdown) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                return task;
+            } finally {
+                parked.set(false);
+                idleCount.decrementAndGet();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Worker(" + index + ")";
+        }
+    }
+
+    private static class WorkerThread extends Thread {
+
+        private final Worker worker;
+
+        WorkerThread(Worker worker, String name) {
+            super(worker, name);
+            this.worker = worker;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.github.dag.core.stream;
+
+import com.github.dag.core.ConcExecute;
+import com.github.dag.core.graph.Graph;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 流水线式的流执行: 同一个 DAG 持续处理无界的记录流, 不同记录同时处于不同的节点上.
+ * <p>
+ * 每个节点(对 {@link Graph#chaining()} 后的图即每个链式 stage)是一个长期存在的算子, 算子之间每条边一个有界队列.
+ * 算子以 actor 方式在线程池上运行: 输入就绪且下游队列有空位时被调度, 一次激活连续处理到无法推进为止,
+ * 同一算子同时只在一个线程上运行, 因此按记录顺序处理, 多个前置节点的输出可逐条对齐.
+ * 下游队列已满时算子停止推进, 压力逐级传回 {@link #submit(Object)} 使其阻塞, 即背压.
+ * <p>
+ * 源点(入度为 0 的节点)的输入为记录本身, 其余节点的输入为前置节点对同一记录的输出, 顺序与反向邻接表一致;
+ * 每条记录全部汇点的输出按提交顺序交给 sink. 开启微批后记录按批在算子之间传递, 以减少队列与调度开销,
+ * 未满的批在 {@link #flush()} 或 {@link #close()} 时发出.
+ * <p>
+ * 任一节点抛出异常即整体失败, 不再接受新记录
+ *
+ * @param <T>
+ * @param <R> 记录与节点输出的类型
+ */
+@Slf4j
+public class StreamingExecution<T, R> implements AutoCloseable {
+
+    /**
+     * 背压时检查失败状态的间隔
+     */
+    private static final long BACKPRESSURE_POLL_MILLIS = 10;
+
+    private final Graph<T> graph;
+
+    private final ExecutorService executeBackend;
+
+    private final ConcExecute.DataflowHandler<T, R> handler;
+
+    private final Consumer<Map<T, R>> sink;
+
+    private final int batchSize;
+
+    /**
+     * 每个节点一个算子, 最后一个为汇总全部汇点输出的收集算子
+     */
+    private final Operator[] operators;
+
+    /**
+     * 源点的输入队列, 由 submit 写入
+     */
+    private final ArrayBlockingQueue<Object[]>[] sourceQueues;
+
+    private final Operator[] sources;
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    /**
+     * 尚未凑满的批, 由 submit 在持有 this 锁时写入
+     */
+    private Object[] pending;
+
+    private int pendingSize;
+
+    private long submittedCount;
+
+    private volatile long emittedCount;
+
+    private volatile boolean closed;
+
+    private volatile Throwable failure;
+
+    @SuppressWarnings("unchecked")
+    private StreamingExecution(Builder<T> builder, ConcExecute.DataflowHandler<T, R> handler, Consumer<Map<T, R>> sink) {
+        this.graph = builder.graph;
+        this.executeBackend = builder.executeBackend;
+        this.handler = handler;
+        this.sink = sink;
+        this.batchSize = builder.batchSize;
+        int n = graph.getNodes().length;
+        if (n == 0) {
+            throw new IllegalArgumentException("graph must not be empty");
+        }
+        int[] inDegree = graph.getInDegree();
+        int[] outDegree = graph.getOutDegree();
+        int[] reverseAdjacency = graph.getReverseAdjacency();
+        int sinkCount = 0;
+        for (int degree : outDegree) {
+            if (degree == 0) {
+                sinkCount++;
+            }
+        }
+        this.operators = new Operator[n + 1];
+        for (int i = 0; i < n; i++) {
+            operators[i] = new Operator(this, i, Math.max(1, inDegree[i]), outDegree[i] == 0 ? 1 : outDegree[i]);
+        }
+        Operator collector = new Operator(this, n, sinkCount, 0);
+        operators[n] = collector;
+        // 每条边一个有界队列, 接在后继的第 k 个输入与前置节点的下一个输出上
+        int[] outCursor = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int k = graph.reverseAdjacencyBegin(i), end = graph.reverseAdjacencyEnd(i); k < end; k++) {
+                connect(operators[reverseAdjacency[k]], outCursor[reverseAdjacency[k]]++, operators[i], k - graph.reverseAdjacencyBegin(i), builder.queueCapacity);
+            }
+        }
+        for (int i = 0, s = 0; i < n; i++) {
+            if (outDegree[i] == 0) {
+                connect(operators[i], 0, collector, s++, builder.queueCapacity);
+            }
+        }
+        int[] zeroDegreeIdx = graph.getZeroDegreeIdx();
+        this.sources = new Operator[zeroDegreeIdx.length];
+        this.sourceQueues = new ArrayBlockingQueue[zeroDegreeIdx.length];
+        for (int s = 0; s < zeroDegreeIdx.length; s++) {
+            sources[s] = operators[zeroDegreeIdx[s]];
+            sourceQueues[s] = new ArrayBlockingQueue<>(builder.queueCapacity);
+            sources[s].inputs[0] = sourceQueues[s];
+        }
+    }
+
+    private void connect(Operator from, int output, Operator to, int input, int capacity) {
+        ArrayBlockingQueue<Object[]> queue = new ArrayBlockingQueue<>(capacity);
+        from.outputs[output] = queue;
+        from.downstream[output] = to;
+        to.inputs[input] = queue;
+        to.upstream[input] = from;
+    }
+
+    public static <T> Builder<T> builder(Graph<T> graph, ExecutorService executeBackend) {
+        return new Builder<>(graph, executeBackend);
+    }
+
+    /**
+     * 提交一条记录, 源点队列已满时阻塞直到有空位, 即背压
+     *
+     * @param record
+     * @throws InterruptedException
+     * @throws IllegalStateException 已关闭或已失败
+     */
+    public synchronized void submit(R record) throws InterruptedException {
+        checkState();
+        if (pending == null) {
+            pending = new Object[batchSize];
+        }
+        pending[pendingSize++] = record;
+        submittedCount++;
+        if (pendingSize == batchSize) {
+            emit(pending);
+            pending = null;
+            pendingSize = 0;
+        }
+    }
+
+    /**
+     * 立即发出未凑满的批
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void flush() throws InterruptedException {
+        checkState();
+        if (pendingSize > 0) {
+            Object[] batch = new Object[pendingSize];
+            System.arraycopy(pending, 0, batch, 0, pendingSize);
+            pending = null;
+            pendingSize = 0;
+            emit(batch);
+        }
+    }
+
+    /**
+     * 发出剩余记录并停止接受新记录, 不等待在途记录处理完毕, 见 {@link #getCompletion()}
+     *
+     * @throws InterruptedException
+     */
+    @Override
+    public synchronized void close() throws InterruptedException {
+        if (closed) {
+            return;
+        }
+        if (failure == null) {
+            flush();
+        }
+        closed = true;
+        checkCompleted();
+    }
+
+    /**
+     * 关闭后全部记录交给 sink 时正常完成, 任一节点失败时以该异常完成
+     *
+     * @return
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * 已交给 sink 的记录数
+     *
+     * @return
+     */
+    public long getEmittedCount() {
+        return emittedCount;
+    }
+
+    private void checkState() {
+        if (failure != null) {
+            throw new IllegalStateException("streaming execution failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("streaming execution is closed");
+        }
+    }
+
+    private void emit(Object[] batch) throws InterruptedException {
+        for (int s = 0; s < sourceQueues.length; s++) {
+            while (!sourceQueues[s].offer(batch, BACKPRESSURE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkState();
+            }
+            sources[s].schedule();
+        }
+    }
+
+    private void checkCompleted() {
+        if (closed && emittedCount == submittedCount) {
+            completion.complete(null);
+        }
+    }
+
+    private void fail(int idx, Throwable t) {
+        if (failure == null) {
+            failure = t;
+            completion.completeExceptionally(t);
+        }
+        log.error("StreamingExecution node {} failed.", idx, t);
+    }
+
+    /**
+     * 处理算子每个输入队列头部的一批, 结果写入全部输出队列, 并唤醒上下游算子
+     *
+     * @param op
+     */
+    @SuppressWarnings("unchecked")
+    private void process(Operator op) {
+        Object[][] batch = op.batch;
+        for (int k = 0; k < op.inputs.length; k++) {
+            batch[k] = op.inputs[k].poll();
+        }
+        int size = batch[0].length;
+        if (op.idx == operators.length - 1) {
+            collect(batch, size);
+        } else {
+            T node = graph.getNodeByIdx(op.idx);
+            Object[] out = new Object[size];
+            for (int r = 0; r < size; r++) {
+                op.view.row = r;
+                out[r] = handler.compute(node, (List<R>) op.view);
+            }
+            // 单生产者且已确认有空位, offer 必然成功
+            for (int k = 0; k < op.outputs.length; k++) {
+                op.outputs[k].offer(out);
+                op.downstream[k].schedule();
+            }
+        }
+        for (int k = 0; k < op.inputs.length; k++) {
+            batch[k] = null;
+            if (op.upstream[k] != null) {
+                op.upstream[k].schedule();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collect(Object[][] batch, int size) {
+        int[] outDegree = graph.getOutDegree();
+        for (int r = 0; r < size; r++) {
+            Map<T, R> result = new HashMap<>();
+            for (int i = 0, s = 0; i < outDegree.length; i++) {
+                if (outDegree[i] == 0) {
+                    result.put(graph.getNodeByIdx(i), (R) batch[s++][r]);
+                }
+            }
+            sink.accept(result);
+        }
+        emittedCount += size;
+        checkCompleted();
+    }
+
+    /**
+     * 单个节点的算子, 以 scheduled 标记保证同时只在一个线程上运行
+     */
+    private static final class Operator implements Runnable {
+
+        private final StreamingExecution<?, ?> owner;
+
+        private final int idx;
+
+        private final ArrayBlockingQueue<Object[]>[] inputs;
+
+        private final Operator[] upstream;
+
+        private final ArrayBlockingQueue<Object[]>[] outputs;
+
+        private final Operator[] downstream;
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * 当前批的输入, 仅在算子运行期间使用
+         */
+        private final Object[][] batch;
+
+        private final BatchInputs view;
+
+        @SuppressWarnings("unchecked")
+        Operator(StreamingExecution<?, ?> owner, int idx, int inputCount, int outputCount) {
+            this.owner = owner;
+            this.idx = idx;
+            this.inputs = new ArrayBlockingQueue[inputCount];
+            this.upstream = new Operator[inputCount];
+            this.outputs = new ArrayBlockingQueue[outputCount];
+            this.downstream = new Operator[outputCount];
+            this.batch = new Object[inputCount][];
+            this.view = new BatchInputs(batch);
+        }
+
+        void schedule() {
+            if (owner.failure == null && scheduled.compareAndSet(false, true)) {
+                try {
+                    owner.executeBackend.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    owner.fail(idx, e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (owner.failure == null && ready()) {
+                    owner.process(this);
+                }
+            } catch (Exception e) {
+                owner.fail(idx, e);
+            } finally {
+                scheduled.set(false);
+            }
+            // 置位之后再检查一次, 避免与上下游的 schedule 交错而丢失唤醒
+            if (owner.failure == null && ready()) {
+                schedule();
+            }
+        }
+
+        private boolean ready() {
+            for (ArrayBlockingQueue<Object[]> input : inputs) {
+                if (input.isEmpty()) {
+                    return false;
+                }
+            }
+            for (ArrayBlockingQueue<Object[]> output : outputs) {
+                if (output.remainingCapacity() == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 批内第 row 条记录的输入视图, 每个算子一个, 跨记录复用
+     */
+    private static final class BatchInputs extends AbstractList<Object> {
+
+        private final Object[][] batch;
+
+        private int row;
+
+        BatchInputs(Object[][] batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public Object get(int index) {
+            return batch[index][row];
+        }
+
+        @Override
+        public int size() {
+            return batch.length;
+        }
+    }
+
+    /**
+     * 流执行构造器
+     *
+     * @param <T>
+     */
+    public static class Builder<T> {
+
+        private final Graph<T> graph;
+
+        private final ExecutorService executeBackend;
+
+        private int queueCapacity = 16;
+
+        private int batchSize = 1;
+
+        private Builder(Graph<T> graph, ExecutorService executeBackend) {
+            this.graph = graph;
+            this.executeBackend = executeBackend;
+        }
+
+        /**
+         * 每条边上最多缓冲的批数, 决定背压前的在途记录数
+         *
+         * @param capacity
+         * @return
+         */
+        public Builder<T> queueCapacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("queue capacity must be positive: " + capacity);
+            }
+            this.queueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * 开启微批: 每 size 条记录作为一批在算子之间传递, 默认 1 即逐条传递
+         *
+         * @param size
+         * @return
+         */
+        public Builder<T> batchSize(int size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("batch size must be positive: " + size);
+            }
+            this.batchSize = size;
+            return this;
+        }
+
+        /**
+         * 启动流执行
+         *
+         * @param handler 节点处理方法, 源点的输入为记录本身
+         * @param sink    每条记录全部汇点的输出, 按提交顺序在执行线程上逐条调用
+         * @param <R>
+         * @return
+         */
+        public <R> StreamingExecution<T, R> start(ConcExecute.DataflowHandler<T, R> handler, Consumer<Map<T, R>> sink) {
+            return new StreamingExecution<>(this, handler, sink);
+        }
+    }
+}
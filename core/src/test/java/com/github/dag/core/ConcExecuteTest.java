@@ -5,6 +5,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -178,6 +180,49 @@ public class ConcExecuteTest {
         });
     }
 
+    @Test
+    public void test5() throws Exception {
+        Node[] nodes = new Node[]{
+                new Node("test0", 0),
+                new Node("test1", 1),
+                new Node("test2", 2),
+        };
+        Graph<Node> graph = Graph.builder()
+                .addNodes(nodes)
+                .addEdge(nodes[0], nodes[1])
+                .addEdge(nodes[0], nodes[2])
+                .build();
+
+        ConcExecute<Node> execute = new ConcExecute<>(graph, getExecutorService(2));
+        CompletableFuture<Void> future = execute.executeAsync((node, submitTime) -> {
+            if (node.age == 2) {
+                throw new IllegalStateException(node.name);
+            }
+        });
+        // 非调用线程同样可以等待结果
+        ExecutorService waiter = Executors.newSingleThreadExecutor();
+        Optional<Exception> result = waiter.submit(execute::await).get();
+        Assert.assertEquals("test2", result.get().getMessage());
+        Assert.assertTrue(future.isCompletedExceptionally());
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+        waiter.shutdown();
+    }
+
+    /**
+     * 创建后未执行的 ConcExecute 不占用计划的执行上下文
+     */
+    @Test
+    public void testUnexecuted() {
+        Graph<String> graph = Graph.builder().addNodes("a", "b").addEdge("a", "b").build();
+        ExecutionPlan<String> plan = new ExecutionPlan<>(graph, getExecutorService(1));
+        ExecutionContext<String> pooled = plan.acquire();
+        pooled.release();
+        new ConcExecute<>(plan);
+        ExecutionContext<String> context = plan.acquire();
+        Assert.assertSame(pooled, context);
+        context.release();
+    }
+
     private ExecutorService getExecutorService(int i) {
         ExecutorService executorService = Executors.newFixedThreadPool(i);
         // 初始化线程
@@ -0,0 +1,1147 @@
+package com.github.dag.core;
+
+import com.github.dag.core.graph.Graph;
+import com.github.dag.core.metrics.ExecutionRecorder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExecutionPlanTest {
+
+    private ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    /***
+     *       e(4)
+     *      /   \
+     *    c(2)  d(3)
+     *      \   /
+     *       b(1)
+     *        |
+     *       a(0)
+     */
+    private Graph<List<String>> graph() {
+        return Graph.builder()
+                .addNodes(new String[]{"a", "b", "c", "d", "e"})
+                .addEdge("a", "b")
+                .addEdge("b", "c")
+                .addEdge("b", "d")
+                .addEdge("c", "e")
+                .addEdge("d", "e")
+                .build().chaining();
+    }
+
+    @Test
+    public void testRepeatedExecute() {
+        ExecutionPlan<List<String>> plan = new ExecutionPlan<>(graph(), pool);
+        AtomicInteger handled = new AtomicInteger();
+        AtomicInteger cleaned = new AtomicInteger();
+        for (int i = 0; i < 1000; i++) {
+            Optional<Exception> result = plan.executeSync(new ConcExecute.Handler<List<String>>() {
+                @Override
+                public void handle(List<String> node, long submitTime) {
+                    handled.incrementAndGet();
+                }
+
+                @Override
+                public void cleanup(List<String> node) {
+                    cleaned.incrementAndGet();
+                }
+            });
+            Assert.assertFalse(result.isPresent());
+        }
+        Assert.assertEquals(4 * 1000, handled.get());
+        Assert.assertEquals(3 * 1000, cleaned.get());
+    }
+
+    @Test
+    public void testExecuteAfterFailure() {
+        ExecutionPlan<List<String>> plan = new ExecutionPlan<>(graph(), pool);
+        Optional<Exception> failed = plan.executeSync((node, submitTime) -> {
+            if (node.contains("c")) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        Assert.assertEquals("boom", failed.get().getMessage());
+
+        AtomicInteger handled = new AtomicInteger();
+        Optional<Exception> result = plan.executeSync((node, submitTime) -> handled.incrementAndGet());
+        Assert.assertFalse(result.isPresent());
+        Assert.assertEquals(4, handled.get());
+    }
+
+    @Test
+    public void testConcurrentExecute() throws Exception {
+        ExecutionPlan<List<String>> plan = new ExecutionPlan<>(graph(), pool);
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        AtomicInteger handled = new AtomicInteger();
+        Future<?>[] futures = new Future[8];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = callers.submit(() -> {
+                for (int j = 0; j < 200; j++) {
+                    Assert.assertFalse(plan.executeSync((node, submitTime) -> handled.incrementAndGet()).isPresent());
+                }
+            });
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        callers.shutdown();
+        Assert.assertEquals(4 * 200 * futures.length, handled.get());
+    }
+
+    @Test
+    public void testInlineContinuation() {
+        Graph.Builder<Integer> builder = Graph.builder();
+        for (int i = 0; i < 100; i++) {
+            builder.addNode(i);
+        }
+        for (int i = 1; i < 100; i++) {
+            builder.addEdge(i - 1, i);
+        }
+        Graph<Integer> chain = builder.build();
+
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        AtomicInteger handled = new AtomicInteger();
+        ExecutionPlan<Integer> plan = ExecutionPlan.builder(chain, pool).inlineDepth(1000).build();
+        Assert.assertFalse(plan.executeSync((node, submitTime) -> {
+            threads.add(Thread.currentThread());
+            handled.incrementAndGet();
+        }).isPresent());
+        Assert.assertEquals(100, handled.get());
+        Assert.assertEquals(1, threads.size());
+
+        // 深度上限之外的后继仍提交到线程池
+        handled.set(0);
+        ExecutionPlan<Integer> capped = ExecutionPlan.builder(chain, pool).inlineDepth(3).build();
+        Assert.assertFalse(capped.executeSync((node, submitTime) -> handled.incrementAndGet()).isPresent());
+        Assert.assertEquals(100, handled.get());
+
+        handled.set(0);
+        ExecutionPlan<List<String>> diamond = ExecutionPlan.builder(graph(), pool).inlineDepth(8).build();
+        Assert.assertFalse(diamond.executeSync((node, submitTime) -> handled.incrementAndGet()).isPresent());
+        Assert.assertEquals(4, handled.get());
+    }
+
+    /***
+     *   l0 l1 l2 l3    t(10)
+     *     \ \ / /      |
+     *        \/       h
+     *       root ----/
+     */
+    @Test
+    public void testPriorityScheduling() {
+        Graph<String> graph = Graph.builder()
+                .addNodes("root", "l0", "l1", "l2", "l3", "h")
+                .addNode("t", 10)
+                .addEdge("root", "l0")
+                .addEdge("root", "l1")
+                .addEdge("root", "l2")
+                .addEdge("root", "l3")
+                .addEdge("root", "h")
+                .addEdge("h", "t")
+                .build();
+        Assert.assertEquals(12, graph.getBottomLevel()[0]);
+        Assert.assertEquals(11, graph.getBottomLevel()[5]);
+        Assert.assertEquals(1, graph.getBottomLevel()[1]);
+
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        List<String> order = new CopyOnWriteArrayList<>();
+        new ExecutionPlan<>(graph, single).executeSync((node, submitTime) -> order.add(node));
+        Assert.assertEquals("l0", order.get(1));
+
+        order.clear();
+        ExecutionPlan<String> plan = ExecutionPlan.builder(graph, single).priorityScheduling().build();
+        Assert.assertFalse(plan.executeSync((node, submitTime) -> order.add(node)).isPresent());
+        Assert.assertEquals(Arrays.asList("root", "h", "t"), order.subList(0, 3));
+        Assert.assertEquals(7, order.size());
+
+        // 内联时选择 bottom level 最大的后继
+        order.clear();
+        ExecutionPlan<String> inline = ExecutionPlan.builder(graph, single).priorityScheduling().inlineDepth(4).build();
+        Assert.assertFalse(inline.executeSync((node, submitTime) -> order.add(node)).isPresent());
+        Assert.assertEquals(Arrays.asList("root", "h", "t"), order.subList(0, 3));
+        single.shutdown();
+    }
+
+    /***
+     *  单个工作线程驱动 200 个并发的异步 IO 节点
+     *
+     *  root -> io0..io199 -> sink
+     */
+    @Test
+    public void testAsyncHandler() {
+        Graph.Builder<String> builder = Graph.builder();
+        builder.addNodes("root", "sink");
+        for (int i = 0; i < 200; i++) {
+            builder.addNode("io" + i);
+            builder.addEdge("root", "io" + i);
+            builder.addEdge("io" + i, "sink");
+        }
+        Graph<String> graph = builder.build();
+
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService io = Executors.newScheduledThreadPool(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger cleaned = new AtomicInteger();
+        List<String> order = new CopyOnWriteArrayList<>();
+        ConcExecute.AsyncHandler<String> handler = new ConcExecute.AsyncHandler<String>() {
+            @Override
+            public CompletionStage<?> handleAsync(String node, long submitTime) {
+                order.add(node);
+                if (!node.startsWith("io")) {
+                    return null;
+                }
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                io.schedule(() -> {
+                    inFlight.decrementAndGet();
+                    future.complete(null);
+                }, 20, TimeUnit.MILLISECONDS);
+                return future;
+            }
+
+            @Override
+            public void cleanup(String node) {
+                cleaned.incrementAndGet();
+            }
+        };
+        Optional<Exception> result = new ExecutionPlan<>(graph, single).executeSync(handler);
+        Assert.assertFalse(result.isPresent());
+        Assert.assertEquals(202, order.size());
+        Assert.assertEquals("sink", order.get(201));
+        Assert.assertEquals(201, cleaned.get());
+        Assert.assertTrue(maxInFlight.get() > 1);
+
+        // 异步失败终止执行
+        Optional<Exception> failed = new ExecutionPlan<>(graph, single).executeSync((ConcExecute.AsyncHandler<String>) (node, submitTime) -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            if (node.equals("io7")) {
+                future.completeExceptionally(new IllegalStateException("io failed"));
+            } else {
+                future.complete(null);
+            }
+            return future;
+        });
+        Assert.assertEquals("io failed", failed.get().getMessage());
+
+        // 以普通 Handler 调用时阻塞等待完成, 异常原样抛出
+        inFlight.set(0);
+        handler.handle("io0", System.currentTimeMillis());
+        Assert.assertEquals(0, inFlight.get());
+        ConcExecute.Handler<String> blocking = (ConcExecute.AsyncHandler<String>) (node, submitTime) -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("io failed"));
+            return future;
+        };
+        try {
+            blocking.handle("io0", System.currentTimeMillis());
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("io failed", e.getMessage());
+        }
+        single.shutdown();
+        io.shutdown();
+    }
+
+    @Test
+    public void testExecuteAsync() throws Exception {
+        ExecutionPlan<List<String>> plan = new ExecutionPlan<>(graph(), pool);
+        AtomicInteger handled = new AtomicInteger();
+        // 单个调用线程发起大量并发执行, 不为每次执行阻塞一个线程
+        CompletableFuture<?>[] futures = new CompletableFuture[10000];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = plan.executeAsync((node, submitTime) -> handled.incrementAndGet());
+        }
+        CompletableFuture.allOf(futures).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(4 * futures.length, handled.get());
+
+        CompletableFuture<Void> failed = plan.executeAsync((node, submitTime) -> {
+            throw new IllegalStateException("boom");
+        });
+        String message = failed.handle((v, t) -> t.getMessage()).get(1, TimeUnit.SECONDS);
+        Assert.assertEquals("boom", message);
+    }
+
+    /***
+     *       d(3)       e(4)
+     *      /   \     /
+     *    b(1)  c(2)
+     *      \   /
+     *       a(0)
+     */
+    @Test
+    public void testDataflow() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("a", "b", "c", "d", "e")
+                .addEdge("a", "b")
+                .addEdge("a", "c")
+                .addEdge("b", "d")
+                .addEdge("c", "d")
+                .addEdge("c", "e")
+                .build();
+        ExecutionPlan<String> plan = new ExecutionPlan<>(graph, pool);
+        List<String> cleaned = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            cleaned.clear();
+            Map<String, String> result = plan.executeDataflow(new ConcExecute.DataflowHandler<String, String>() {
+                @Override
+                public String compute(String node, List<String> inputs) {
+                    return node + inputs;
+                }
+
+                @Override
+                public void cleanup(String node) {
+                    cleaned.add(node);
+                }
+            }).get(1, TimeUnit.SECONDS);
+            Assert.assertEquals(2, result.size());
+            Assert.assertEquals("d[b[a[]], c[a[]]]", result.get("d"));
+            Assert.assertEquals("e[c[a[]]]", result.get("e"));
+            Assert.assertEquals(3, cleaned.size());
+        }
+    }
+
+    /***
+     *  在调用线程上直接执行任务, 自身不分配, 用于单独度量调度路径的分配. 递归深度与图的深度成正比, 只用于浅图
+     */
+    private static class DirectExecutor extends AbstractExecutorService {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    @Test
+    public void testDispatchAllocation() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Graph.Builder<Integer> builder = Graph.builder();
+        for (int i = 0; i < 1000; i++) {
+            builder.addNode(i);
+            if (i > 0) {
+                builder.addEdge(i / 2, i);
+            }
+        }
+        Graph<Integer> tree = builder.build();
+        ExecutionPlan<Integer> plan = new ExecutionPlan<>(tree, new DirectExecutor());
+        AtomicInteger handled = new AtomicInteger();
+        ConcExecute.Handler<Integer> handler = (node, submitTime) -> handled.incrementAndGet();
+        // 预热, 让上下文进入池中并完成 JIT
+        for (int i = 0; i < 2000; i++) {
+            plan.executeSync(handler);
+        }
+        int runs = 1000;
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < runs; i++) {
+            plan.executeSync(handler);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        double perNode = (double) allocated / (runs * 1000L);
+        System.out.println("allocated bytes per node: " + perNode);
+        // 每次执行只分配 CompletableFuture 等少量对象, 摊到每个节点远小于 1 字节
+        Assert.assertTrue("allocated bytes per node: " + perNode, perNode < 1);
+        Assert.assertEquals((2000 + runs) * 1000, handled.get());
+    }
+
+    /***
+     *  root -> m0..m4999 -> sink, root 的出度与 sink 的入度都超过条带计数阈值
+     */
+    @Test
+    public void testStripedCounters() throws Exception {
+        int width = 5000;
+        Graph.Builder<Integer> builder = Graph.builder();
+        builder.addNode(-1);
+        builder.addNode(width);
+        for (int i = 0; i < width; i++) {
+            builder.addNode(i);
+            builder.addEdge(-1, i);
+            builder.addEdge(i, width);
+        }
+        Graph<Integer> graph = builder.build();
+
+        ExecutorService wide = Executors.newFixedThreadPool(8);
+        ExecutionPlan<Integer> plan = ExecutionPlan.builder(graph, wide).stripedCounterThreshold(64).build();
+        Assert.assertNotNull(plan.getInDegreeLayout());
+        Assert.assertNotNull(plan.getOutDegreeLayout());
+        AtomicInteger handled = new AtomicInteger();
+        Set<Integer> cleaned = ConcurrentHashMap.newKeySet();
+        ConcExecute.Handler<Integer> handler = new ConcExecute.Handler<Integer>() {
+            @Override
+            public void handle(Integer node, long submitTime) {
+                if (node == width) {
+                    Assert.assertEquals(width + 1, handled.get());
+                }
+                handled.incrementAndGet();
+            }
+
+            @Override
+            public void cleanup(Integer node) {
+                Assert.assertTrue(cleaned.add(node));
+            }
+        };
+        for (int i = 0; i < 20; i++) {
+            handled.set(0);
+            cleaned.clear();
+            Assert.assertFalse(plan.executeSync(handler).isPresent());
+            Assert.assertEquals(width + 2, handled.get());
+            Assert.assertEquals(width + 1, cleaned.size());
+        }
+
+        // 数据流模式下汇点看到全部输入
+        Map<Integer, Integer> result = plan.executeDataflow((Integer node, List<Integer> inputs) -> {
+            int sum = node < 0 ? 0 : 1;
+            for (Integer input : inputs) {
+                sum += node == width ? input : 0;
+            }
+            return sum;
+        }).get();
+        Assert.assertEquals(Integer.valueOf(width + 1), result.get(width));
+
+        // 默认阈值下该图不使用条带计数
+        Assert.assertNull(new ExecutionPlan<>(graph(), pool).getInDegreeLayout());
+        wide.shutdown();
+    }
+
+    /***
+     *  s0 -> a0 -> a1 \
+     *                   sum
+     *  s1 -> b0 -> b1 /
+     *  s2 -> c0          (另一个汇点)
+     */
+    @Test
+    public void testIncremental() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("s0", "s1", "s2", "a0", "a1", "b0", "b1", "c0", "sum")
+                .addEdge("s0", "a0")
+                .addEdge("a0", "a1")
+                .addEdge("s1", "b0")
+                .addEdge("b0", "b1")
+                .addEdge("a1", "sum")
+                .addEdge("b1", "sum")
+                .addEdge("s2", "c0")
+                .build();
+        Map<String, Integer> sources = new ConcurrentHashMap<>();
+        sources.put("s0", 1);
+        sources.put("s1", 10);
+        sources.put("s2", 100);
+        Map<String, AtomicInteger> computed = new ConcurrentHashMap<>();
+        AtomicInteger boom = new AtomicInteger();
+        ExecutionPlan<String> plan = ExecutionPlan.builder(graph, pool).build();
+        IncrementalExecution<String, Integer> session = plan.incremental((node, inputs) -> {
+            computed.computeIfAbsent(node, k -> new AtomicInteger()).incrementAndGet();
+            if (node.equals("b1") && boom.get() > 0) {
+                boom.decrementAndGet();
+                throw new IllegalStateException("boom");
+            }
+            int sum = sources.getOrDefault(node, 0);
+            for (Integer input : inputs) {
+                sum += input;
+            }
+            return sum;
+        });
+
+        Map<String, Integer> result = session.execute().get();
+        Assert.assertEquals(Integer.valueOf(11), result.get("sum"));
+        Assert.assertEquals(Integer.valueOf(100), result.get("c0"));
+        Assert.assertEquals(9, computed.size());
+
+        // 只有 s0 的后代重新执行, 其余输出来自缓存
+        computed.clear();
+        sources.put("s0", 2);
+        result = session.update(Collections.singletonList("s0")).get();
+        Assert.assertEquals(Integer.valueOf(12), result.get("sum"));
+        Assert.assertEquals(Integer.valueOf(100), result.get("c0"));
+        Assert.assertEquals(new java.util.HashSet<>(Arrays.asList("s0", "a0", "a1", "sum")), computed.keySet());
+        Assert.assertEquals(Integer.valueOf(10), session.getOutput("b1"));
+
+        // 失败后脏节点并入下一次更新
+        computed.clear();
+        sources.put("s1", 20);
+        boom.set(1);
+        Assert.assertTrue(ExecutionContext.await(session.update(Collections.singletonList("s1"))).isPresent());
+        sources.put("s2", 200);
+        result = session.update(Collections.singletonList("s2")).get();
+        Assert.assertEquals(Integer.valueOf(22), result.get("sum"));
+        Assert.assertEquals(Integer.valueOf(200), result.get("c0"));
+        Assert.assertEquals(2, computed.get("b1").get());
+        Assert.assertNull(computed.get("a0"));
+    }
+
+    /**
+     * 失败执行的在途节点结束后下一次执行才开始, 其旧输出不会覆盖新结果
+     */
+    @Test
+    public void testIncrementalAfterFailure() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("s", "slow", "bad")
+                .addEdge("s", "slow")
+                .addEdge("s", "bad")
+                .build();
+        AtomicInteger version = new AtomicInteger(1);
+        AtomicInteger blockSlow = new AtomicInteger();
+        AtomicInteger failBad = new AtomicInteger();
+        CompletableFuture<Void> slowStarted = new CompletableFuture<>();
+        java.util.concurrent.CountDownLatch unblock = new java.util.concurrent.CountDownLatch(1);
+        IncrementalExecution<String, Integer> session = ExecutionPlan.builder(graph, pool).build().incremental((node, inputs) -> {
+            switch (node) {
+                case "s":
+                    return version.get();
+                case "slow":
+                    if (blockSlow.getAndSet(0) == 1) {
+                        slowStarted.complete(null);
+                        try {
+                            unblock.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return inputs.get(0);
+                default:
+                    if (failBad.getAndSet(0) == 1) {
+                        slowStarted.join();
+                        throw new IllegalStateException("bad");
+                    }
+                    return inputs.get(0);
+            }
+        });
+        Assert.assertEquals(Integer.valueOf(1), session.execute().get(5, TimeUnit.SECONDS).get("slow"));
+
+        version.set(2);
+        blockSlow.set(1);
+        failBad.set(1);
+        Assert.assertEquals("bad", ExecutionContext.await(session.update(Collections.singletonList("s"))).get().getMessage());
+
+        // slow 仍在以旧输入执行, 下一次更新等待其结束
+        version.set(3);
+        CompletableFuture<Map<String, Integer>> next = session.update(Collections.singletonList("s"));
+        Thread.sleep(50);
+        Assert.assertFalse(next.isDone());
+        unblock.countDown();
+        Map<String, Integer> result = next.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(Integer.valueOf(3), result.get("slow"));
+        Assert.assertEquals(Integer.valueOf(3), result.get("bad"));
+        Assert.assertEquals(Integer.valueOf(3), session.getOutput("slow"));
+    }
+
+    @Test
+    public void testExecuteTargets() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("s0", "s1", "s2", "a0", "a1", "b0", "b1", "c0", "sum")
+                .addEdge("s0", "a0")
+                .addEdge("a0", "a1")
+                .addEdge("s1", "b0")
+                .addEdge("b0", "b1")
+                .addEdge("a1", "sum")
+                .addEdge("b1", "sum")
+                .addEdge("s2", "c0")
+                .build();
+        ExecutionPlan<String> plan = ExecutionPlan.builder(graph, pool).inlineDepth(2).build();
+        Set<String> handled = ConcurrentHashMap.newKeySet();
+        Assert.assertFalse(plan.executeSync((node, submitTime) -> Assert.assertTrue(handled.add(node)),
+                Collections.singletonList("b1")).isPresent());
+        Assert.assertEquals(new java.util.HashSet<>(Arrays.asList("s1", "b0", "b1")), handled);
+
+        // 目标互为祖先时输出仍保留, 无关分支 c0 不执行
+        for (int i = 0; i < 3; i++) {
+            handled.clear();
+            Map<String, Integer> result = plan.executeDataflow((String node, List<Integer> inputs) -> {
+                handled.add(node);
+                int sum = node.matches("s\\d") ? 1 : 0;
+                for (Integer input : inputs) {
+                    sum += input;
+                }
+                return sum;
+            }, Arrays.asList("a0", "sum")).get();
+            Assert.assertEquals(2, result.size());
+            Assert.assertEquals(Integer.valueOf(1), result.get("a0"));
+            Assert.assertEquals(Integer.valueOf(2), result.get("sum"));
+            Assert.assertEquals(7, handled.size());
+            Assert.assertFalse(handled.contains("c0"));
+        }
+
+        // 全量数据流执行不受之前按目标执行的影响
+        Map<String, Integer> all = plan.executeDataflow((String node, List<Integer> inputs) -> inputs.size()).get();
+        Assert.assertEquals(2, all.size());
+        Assert.assertEquals(Integer.valueOf(2), all.get("sum"));
+
+        try {
+            plan.executeAsync((node, submitTime) -> {
+            }, Collections.singletonList("missing"));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("missing"));
+        }
+    }
+
+    /***
+     *        in
+     *       /  \
+     *   plus    times
+     *       \  /
+     *        sum
+     */
+    @Test
+    public void testExecuteBatch() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("in", "plus", "times", "sum")
+                .addEdge("in", "plus")
+                .addEdge("in", "times")
+                .addEdge("plus", "sum")
+                .addEdge("times", "sum")
+                .build();
+        ExecutionPlan<String> plan = new ExecutionPlan<>(graph, pool);
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        List<Long> inputs = new java.util.ArrayList<>();
+        for (long i = 0; i < 100; i++) {
+            inputs.add(i);
+        }
+        List<CompletableFuture<Map<String, Long>>> results = plan.executeBatch((String node, Batch<Long> batch) -> {
+            calls.computeIfAbsent(node, k -> new AtomicInteger()).incrementAndGet();
+            for (int i = 0; i < batch.size(); i++) {
+                List<Long> in = batch.inputs(i);
+                switch (node) {
+                    case "plus":
+                        if (batch.instance(i) == 7) {
+                            batch.fail(i, new IllegalStateException("bad instance 7"));
+                        } else {
+                            batch.set(i, in.get(0) + 1);
+                        }
+                        break;
+                    case "times":
+                        batch.set(i, in.get(0) * 10);
+                        break;
+                    case "sum":
+                        Assert.assertNotEquals(7, batch.instance(i));
+                        batch.set(i, in.get(0) + in.get(1));
+                        break;
+                    default:
+                        batch.set(i, in.get(0));
+                }
+            }
+        }, inputs);
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).exceptionally(t -> null).get();
+        for (int i = 0; i < 100; i++) {
+            if (i == 7) {
+                Assert.assertEquals("bad instance 7", ExecutionContext.await(results.get(i)).get().getMessage());
+            } else {
+                Assert.assertEquals(Long.valueOf(i + 1 + i * 10L), results.get(i).get().get("sum"));
+            }
+        }
+        // 每个节点对整批只调用一次
+        for (AtomicInteger count : calls.values()) {
+            Assert.assertEquals(1, count.get());
+        }
+        Assert.assertEquals(4, calls.size());
+
+        // 处理方法整体抛出异常时本次参与的实例全部失败, 不影响整批结束
+        List<CompletableFuture<Map<String, Long>>> failed = plan.executeBatch((String node, Batch<Long> batch) -> {
+            if (node.equals("sum")) {
+                throw new IllegalStateException("sum down");
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.set(i, batch.inputs(i).get(0));
+            }
+        }, Arrays.asList(1L, 2L));
+        for (CompletableFuture<Map<String, Long>> result : failed) {
+            Assert.assertEquals("sum down", ExecutionContext.await(result).get().getMessage());
+        }
+    }
+
+    /**
+     * 执行结果先于在途节点的收尾完成, 其占用的资源在其后归还, 轮询等待
+     *
+     * @param value
+     * @throws InterruptedException
+     */
+    private static void awaitReleased(java.util.function.LongSupplier value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (value.getAsLong() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(0, value.getAsLong());
+    }
+
+    /**
+     * db 类别最多 2 个节点同时执行, io 类别的节点在专属线程池上执行
+     */
+    @Test
+    public void testResourceBulkhead() throws Exception {
+        Graph.Builder<String> builder = Graph.builder();
+        builder.addNodes("src", "sink");
+        for (int i = 0; i < 20; i++) {
+            builder.addNode("db" + i).addEdge("src", "db" + i).addEdge("db" + i, "sink").resource("db" + i, "db");
+        }
+        for (int i = 0; i < 5; i++) {
+            builder.addNode("io" + i).addEdge("src", "io" + i).addEdge("io" + i, "sink").resource("io" + i, "io");
+        }
+        Graph<String> graph = builder.build();
+        ExecutorService ioPool = Executors.newFixedThreadPool(2, r -> new Thread(r, "io-pool"));
+        try {
+            ExecutionPlan<String> plan = ExecutionPlan.builder(graph, pool)
+                    .resourceLimit("db", 2)
+                    .resourcePool("io", ioPool)
+                    .build();
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            Set<String> ioThreads = ConcurrentHashMap.newKeySet();
+            ConcExecute.Handler<String> handler = (node, submitTime) -> {
+                if (node.startsWith("db")) {
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                } else if (node.startsWith("io")) {
+                    ioThreads.add(Thread.currentThread().getName());
+                }
+            };
+            // 两次执行并发进行, 共享同一组许可
+            CompletableFuture<Void> first = plan.executeAsync(handler);
+            CompletableFuture<Void> second = plan.executeAsync(handler);
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(maxRunning.get() <= 2);
+            Assert.assertEquals(Collections.singleton("io-pool"), ioThreads);
+            awaitReleased(() -> plan.getRoute("db").getInUse());
+            Assert.assertEquals(0, plan.getRoute("db").getWaitingCount());
+
+            // 节点失败时许可同样归还
+            Optional<Exception> failed = plan.executeSync((node, submitTime) -> {
+                if (node.equals("db3")) {
+                    throw new IllegalStateException("db down");
+                }
+            });
+            Assert.assertEquals("db down", failed.get().getMessage());
+            awaitReleased(() -> plan.getRoute("db").getInUse());
+        } finally {
+            ioPool.shutdown();
+        }
+    }
+
+    /**
+     * 每个生产者输出 100 字节, 预算 100 字节时生产者与消费者严格交替, 存活的中间输出不超过预算
+     */
+    @Test
+    public void testMemoryBudget() throws Exception {
+        Graph.Builder<String> builder = Graph.builder();
+        builder.addNodes("src", "sink");
+        for (int i = 0; i < 20; i++) {
+            builder.addNodes("p" + i, "c" + i)
+                    .addEdge("src", "p" + i)
+                    .addEdge("p" + i, "c" + i)
+                    .addEdge("c" + i, "sink")
+                    .outputSize("p" + i, 100);
+        }
+        ExecutionPlan<String> plan = ExecutionPlan.builder(builder.build(), pool)
+                .memoryBudget(100)
+                .build();
+        AtomicInteger live = new AtomicInteger();
+        AtomicInteger maxLive = new AtomicInteger();
+        List<String> started = new CopyOnWriteArrayList<>();
+        Optional<Exception> result = plan.executeSync(new ConcExecute.Handler<String>() {
+            @Override
+            public void handle(String node, long submitTime) {
+                started.add(node);
+                if (node.startsWith("p")) {
+                    maxLive.accumulateAndGet(live.addAndGet(100), Math::max);
+                }
+            }
+
+            @Override
+            public void cleanup(String node) {
+                if (node.startsWith("p")) {
+                    live.addAndGet(-100);
+                }
+            }
+        });
+        Assert.assertFalse(result.isPresent());
+        Assert.assertEquals(100, maxLive.get());
+        List<String> middle = started.subList(1, started.size() - 1);
+        for (int i = 0; i < middle.size(); i += 2) {
+            String producer = middle.get(i);
+            Assert.assertTrue(producer.startsWith("p"));
+            Assert.assertEquals("c" + producer.substring(1), middle.get(i + 1));
+        }
+        awaitReleased(() -> plan.getMemoryBudget().getReserved());
+        Assert.assertEquals(0, plan.getMemoryBudget().getWaitingCount());
+
+        // 单个节点的输出超过预算时仍会执行
+        Graph<String> big = Graph.builder()
+                .addNodes("a", "b")
+                .addEdge("a", "b")
+                .outputSize("a", 1000)
+                .outputSize("b", 1000)
+                .build();
+        ExecutionPlan<String> bigPlan = ExecutionPlan.builder(big, pool).memoryBudget(100).build();
+        Assert.assertFalse(bigPlan.executeSync((node, submitTime) -> {
+        }).isPresent());
+        awaitReleased(() -> bigPlan.getMemoryBudget().getReserved());
+    }
+
+    /***
+     *       e
+     *      / \
+     *     c   d
+     *      \ /
+     *       b
+     *       |
+     *       a
+     */
+    @Test
+    public void testCheckpoint() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("a", "b", "c", "d", "e")
+                .addEdge("a", "b")
+                .addEdge("b", "c")
+                .addEdge("b", "d")
+                .addEdge("c", "e")
+                .addEdge("d", "e")
+                .build();
+        ExecutionPlan<String> plan = new ExecutionPlan<>(graph, pool);
+        java.nio.file.Path file = java.nio.file.Files.createTempDirectory("checkpoint").resolve("progress");
+        Checkpoint.OutputCodec<Integer> codec = new Checkpoint.OutputCodec<Integer>() {
+            @Override
+            public byte[] encode(Integer output) {
+                return java.nio.ByteBuffer.allocate(4).putInt(output).array();
+            }
+
+            @Override
+            public Integer decode(byte[] bytes) {
+                return java.nio.ByteBuffer.wrap(bytes).getInt();
+            }
+        };
+        Set<String> executed = ConcurrentHashMap.newKeySet();
+        ConcExecute.DataflowHandler<String, Integer> handler = (node, inputs) -> {
+            executed.add(node);
+            switch (node) {
+                case "a":
+                    return 1;
+                case "b":
+                    return inputs.get(0) + 1;
+                case "c":
+                    return inputs.get(0) * 2;
+                case "d":
+                    return inputs.get(0) * 3;
+                default:
+                    return inputs.get(0) + inputs.get(1);
+            }
+        };
+
+        // 首次执行在 c 处中断
+        try (Checkpoint checkpoint = Checkpoint.builder(file).groupCommit(1, 0).outputCodec(codec).open(graph)) {
+            CompletableFuture<Map<String, Integer>> crashed = plan.executeDataflow((String node, List<Integer> inputs) -> {
+                if (node.equals("c")) {
+                    throw new IllegalStateException("crash");
+                }
+                return handler.compute(node, inputs);
+            }, checkpoint);
+            Assert.assertEquals("crash", ExecutionContext.await(crashed).get().getMessage());
+        }
+
+        // 重新打开后只执行未完成的节点, a、b 的输出从检查点恢复
+        executed.clear();
+        try (Checkpoint checkpoint = Checkpoint.builder(file).outputCodec(codec).open(graph)) {
+            Assert.assertTrue(checkpoint.isDone(0));
+            Assert.assertTrue(checkpoint.isDone(1));
+            Assert.assertFalse(checkpoint.isDone(2));
+            Assert.assertEquals(Collections.singletonMap("e", 10), plan.executeDataflow(handler, checkpoint).get());
+            Assert.assertFalse(executed.contains("a"));
+            Assert.assertFalse(executed.contains("b"));
+            Assert.assertTrue(executed.contains("c"));
+            Assert.assertTrue(executed.contains("e"));
+        }
+
+        // 全部完成后再次执行不会执行任何节点, 汇点输出取自检查点
+        executed.clear();
+        try (Checkpoint checkpoint = Checkpoint.builder(file).outputCodec(codec).open(graph)) {
+            Assert.assertEquals(Collections.singletonMap("e", 10), plan.executeDataflow(handler, checkpoint).get());
+            Assert.assertTrue(executed.isEmpty());
+            checkpoint.clear();
+            Assert.assertFalse(plan.executeSync((node, submitTime) -> executed.add(node), checkpoint).isPresent());
+            Assert.assertEquals(5, executed.size());
+        }
+
+        // 拓扑不同的图不能使用该检查点
+        Graph<String> other = Graph.builder()
+                .addNodes("a", "b", "c", "d", "e")
+                .addEdge("a", "b")
+                .build();
+        try {
+            Checkpoint.builder(file).open(other);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("different graph"));
+        }
+    }
+
+    /**
+     * 前 5 次执行建立耗时历史, 第 6 次执行中 slow 卡住, 副本胜出, 后继只执行一次, 卡住的原始执行被中断
+     */
+    @Test
+    public void testSpeculation() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("src", "slow", "sink")
+                .addEdge("src", "slow")
+                .addEdge("slow", "sink")
+                .build();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ExecutionPlan<String> plan = ExecutionPlan.builder(graph, pool)
+                    .speculation(node -> node.equals("slow"), timer)
+                    .build();
+            AtomicInteger slowCalls = new AtomicInteger();
+            AtomicInteger sinkCalls = new AtomicInteger();
+            CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+            ConcExecute.DataflowHandler<String, Integer> handler = (node, inputs) -> {
+                switch (node) {
+                    case "src":
+                        return 1;
+                    case "slow":
+                        try {
+                            Thread.sleep(slowCalls.incrementAndGet() == 6 ? 10000 : 2);
+                        } catch (InterruptedException e) {
+                            interrupted.complete(true);
+                            throw new IllegalStateException("cancelled");
+                        }
+                        return inputs.get(0) + 1;
+                    default:
+                        sinkCalls.incrementAndGet();
+                        return inputs.get(0);
+                }
+            };
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals(Collections.singletonMap("sink", 2), plan.executeDataflow(handler).get());
+            }
+            Assert.assertEquals(5, slowCalls.get());
+
+            long start = System.nanoTime();
+            Assert.assertEquals(Collections.singletonMap("sink", 2), plan.executeDataflow(handler).get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            Assert.assertEquals(7, slowCalls.get());
+            Assert.assertEquals(6, sinkCalls.get());
+            Assert.assertTrue(interrupted.get(5, TimeUnit.SECONDS));
+
+            // 原始执行超过阈值后启动副本, 两次执行都失败时执行才失败
+            AtomicInteger failedCalls = new AtomicInteger();
+            Optional<Exception> failed = plan.executeSync((node, submitTime) -> {
+                if (node.equals("slow")) {
+                    failedCalls.incrementAndGet();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalStateException("slow down");
+                }
+            });
+            Assert.assertEquals("slow down", failed.get().getMessage());
+            Assert.assertEquals(2, failedCalls.get());
+
+            try {
+                ExecutionPlan.builder(graph, pool).speculation(node -> true, null);
+                Assert.fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                ExecutionPlan.builder(graph, pool).speculation(null, timer);
+                Assert.fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * 路由到舱壁的节点, 副本同样占用许可, 许可用满时不启动副本
+     */
+    @Test
+    public void testSpeculationBulkhead() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("src", "slow")
+                .addEdge("src", "slow")
+                .resource("slow", "db")
+                .build();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ExecutionPlan<String> plan = ExecutionPlan.builder(graph, pool)
+                    .resourceLimit("db", 1)
+                    .speculation(node -> node.equals("slow"), timer)
+                    .build();
+            AtomicInteger calls = new AtomicInteger();
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            ConcExecute.Handler<String> handler = (node, submitTime) -> {
+                if (node.equals("slow")) {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(calls.incrementAndGet() == 6 ? 200 : 2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            };
+            for (int i = 0; i < 6; i++) {
+                Assert.assertFalse(plan.executeSync(handler).isPresent());
+            }
+            Assert.assertEquals(6, calls.get());
+            Assert.assertEquals(1, maxRunning.get());
+            awaitReleased(() -> plan.getRoute("db").getInUse());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        Graph<String> graph = Graph.builder()
+                .addNodes("src", "flaky", "sink")
+                .addEdge("src", "flaky")
+                .addEdge("flaky", "sink")
+                .build();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ExecutionRecorder recorder = new ExecutionRecorder(graph);
+            RetryPolicy policy = RetryPolicy.builder()
+                    .maxAttempts(3)
+                    .backoff(1, 10)
+                    .retryOn(e -> !(e instanceof UnsupportedOperationException))
+                    .build();
+            ExecutionPlan<String> plan = ExecutionPlan.builder(graph, pool)
+                    .retryPolicy(node -> node.equals("flaky") ? policy : null, timer)
+                    .listener(recorder)
+                    .build();
+            int flaky = 1;
+
+            // 前两次失败, 第三次成功
+            AtomicInteger calls = new AtomicInteger();
+            List<String> handled = new CopyOnWriteArrayList<>();
+            Optional<Exception> result = plan.executeSync((node, submitTime) -> {
+                if (node.equals("flaky") && calls.incrementAndGet() < 3) {
+                    throw new IllegalStateException("flaky");
+                }
+                handled.add(node);
+            });
+            Assert.assertFalse(result.isPresent());
+            Assert.assertEquals(3, calls.get());
+            Assert.assertEquals(Arrays.asList("src", "flaky", "sink"), handled);
+            Assert.assertEquals(2, recorder.getRetryCount(flaky));
+
+            // 重试次数用尽
+            calls.set(0);
+            handled.clear();
+            result = plan.executeSync((node, submitTime) -> {
+                if (node.equals("flaky")) {
+                    calls.incrementAndGet();
+                    throw new IllegalStateException("always");
+                }
+                handled.add(node);
+            });
+            Assert.assertEquals("always", result.get().getMessage());
+            Assert.assertEquals(3, calls.get());
+            Assert.assertEquals(Collections.singletonList("src"), handled);
+            Assert.assertEquals(4, recorder.getRetryCount(flaky));
+
+            // 不可重试的异常立即失败
+            calls.set(0);
+            result = plan.executeSync((node, submitTime) -> {
+                if (node.equals("flaky")) {
+                    calls.incrementAndGet();
+                    throw new UnsupportedOperationException("fatal");
+                }
+            });
+            Assert.assertEquals("fatal", result.get().getMessage());
+            Assert.assertEquals(1, calls.get());
+            Assert.assertEquals(4, recorder.getRetryCount(flaky));
+
+            // 数据流节点重试时输入不变
+            calls.set(0);
+            Map<String, Integer> outputs = plan.executeDataflow((ConcExecute.DataflowHandler<String, Integer>) (node, inputs) -> {
+                if (node.equals("flaky") && calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("once");
+                }
+                return inputs.isEmpty() ? 1 : inputs.get(0) + 1;
+            }).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(Collections.singletonMap("sink", 3), outputs);
+            Assert.assertEquals(5, recorder.getRetryCount(flaky));
+            Assert.assertTrue(recorder.getRetryBackoffNanos(flaky) <= TimeUnit.MILLISECONDS.toNanos(1 + 2 + 1 + 2 + 1));
+
+            // 异步节点的 CompletionStage 异常完成同样重试
+            AtomicInteger asyncCalls = new AtomicInteger();
+            CompletableFuture<Void> async = plan.executeAsync((ConcExecute.AsyncHandler<String>) (node, submitTime) -> {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                if (node.equals("flaky") && asyncCalls.incrementAndGet() < 3) {
+                    future.completeExceptionally(new IllegalStateException("async"));
+                } else {
+                    future.complete(null);
+                }
+                return future;
+            });
+            async.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(3, asyncCalls.get());
+            Assert.assertEquals(7, recorder.getRetryCount(flaky));
+
+            try {
+                ExecutionPlan.builder(graph, pool).retryPolicy(node -> policy, null);
+                Assert.fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
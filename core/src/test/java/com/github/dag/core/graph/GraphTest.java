@@ -4,6 +4,8 @@ import com.github.dag.core.ConcExecute;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -212,6 +214,325 @@ public class GraphTest {
         testExecute(chain);
     }
 
+    /***
+     *      e(4)
+     *    /   \
+     *   b(1)  d(3)
+     *   \     \
+     *    \     c(2)
+     *     \   /
+     *       a(0)
+     */
+    @Test
+    public void testCsr() {
+        Graph<String> graph = Graph.builder()
+                .addNodes(new String[]{"a", "b", "c", "d", "e"})
+                .addEdge("a", "b")
+                .addEdge("a", "c")
+                .addEdge("c", "d")
+                .addEdge("b", "e")
+                .addEdge("d", "e")
+                .build();
+        System.out.println(graph);
+        Assert.assertArrayEquals(new int[]{0, 2, 3, 4, 5, 5}, graph.getAdjacencyOffset());
+        Assert.assertArrayEquals(new int[]{1, 2, 4, 3, 4}, graph.getAdjacency());
+        Assert.assertArrayEquals(new int[]{0, 0, 1, 2, 3, 5}, graph.getReverseAdjacencyOffset());
+        Assert.assertArrayEquals(new int[]{0, 0, 2, 1, 3}, graph.getReverseAdjacency());
+        Assert.assertEquals(2, graph.adjacencyEnd(0) - graph.adjacencyBegin(0));
+        Assert.assertEquals(2, graph.reverseAdjacencyEnd(4) - graph.reverseAdjacencyBegin(4));
+        Assert.assertArrayEquals(new int[]{0}, graph.getZeroDegreeIdx());
+        Assert.assertTrue(graph.isDAG());
+
+        Graph<String> cycle = Graph.builder()
+                .addNodes(new String[]{"a", "b", "c"})
+                .addEdge("a", "b")
+                .addEdge("b", "c")
+                .addEdge("c", "b")
+                .build();
+        Assert.assertFalse(cycle.isDAG());
+    }
+
+    /***
+     *               sink
+     *        /  /  ...  \  \
+     *      l0  l1  ...  l8  l9
+     *        \  \  ...  /  /
+     *               root
+     */
+    @Test
+    public void testFuse() {
+        Graph.Builder<String> builder = Graph.builder();
+        builder.addNodes("root", "sink");
+        for (int i = 0; i < 10; i++) {
+            builder.addNode("l" + i);
+            builder.addEdge("root", "l" + i);
+            builder.addEdge("l" + i, "sink");
+        }
+        Graph<List<String>> fused = builder.build().fuse(4);
+        System.out.println(fused);
+        Assert.assertEquals("Graph(nodes=[[root, l0, l1, l2], [l3, l4, l5, l6], [l7, l8, l9], [sink]], inDegree=[0, 1, 1, 3], adjacencyList=[[1, 2, 3], [3], [3], []], outDegree=[3, 1, 1, 0], reverseAdjacencyList=[[], [0], [0], [0, 1, 2]], zeroDegreeIdx=[0])", fused.toString());
+        Assert.assertArrayEquals(new long[]{4, 4, 3, 1}, fused.getCost());
+        testExecute(fused);
+
+        // 宽扇出按粒度分组后, 兄弟 stage 之间没有依赖, 仍可并行
+        builder = Graph.builder();
+        builder.addNodes("root", "sink");
+        for (int i = 0; i < 100; i++) {
+            builder.addNode("l" + i);
+            builder.addEdge("root", "l" + i);
+            builder.addEdge("l" + i, "sink");
+        }
+        Graph<List<String>> wide = builder.build().fuse(10);
+        int sink = wide.getNodes().length - 1;
+        Assert.assertEquals(Collections.singletonList("sink"), wide.getNodes()[sink]);
+        for (int s = 1; s < sink; s++) {
+            Assert.assertEquals(1, wide.getInDegree()[s]);
+            Assert.assertEquals(0, wide.getReverseAdjacency()[wide.reverseAdjacencyBegin(s)]);
+            Assert.assertEquals(1, wide.getOutDegree()[s]);
+            Assert.assertEquals(sink, wide.getAdjacency()[wide.adjacencyBegin(s)]);
+        }
+        Assert.assertEquals(11, sink);
+        testExecute(wide);
+
+        // 代价超过目标粒度的节点单独成为 stage
+        Graph<List<String>> heavy = Graph.builder()
+                .addNode("a", 1)
+                .addNode("b", 10)
+                .addNode("c", 1)
+                .addNode("d", 1)
+                .addEdge("a", "b")
+                .addEdge("a", "c")
+                .addEdge("b", "d")
+                .addEdge("c", "d")
+                .build().fuse(4);
+        System.out.println(heavy);
+        // c 不依赖 b, 并入 a 所在的 stage, 不会排在 b 之后
+        Assert.assertEquals("Graph(nodes=[[a, c], [b], [d]], inDegree=[0, 1, 2], adjacencyList=[[1, 2], [2], []], outDegree=[2, 1, 0], reverseAdjacencyList=[[], [0], [0, 1]], zeroDegreeIdx=[0])", heavy.toString());
+        Assert.assertArrayEquals(new long[]{13, 11, 1}, heavy.getBottomLevel());
+        testExecute(heavy);
+    }
+
+    /**
+     * 不同资源类别的节点不会合并到同一个 stage
+     */
+    @Test
+    public void testResource() {
+        Graph<List<String>> chain = Graph.builder()
+                .addNodes("a", "b", "c", "d")
+                .addEdge("a", "b")
+                .addEdge("b", "c")
+                .addEdge("c", "d")
+                .resource("b", "db")
+                .resource("c", "db")
+                .build().chaining();
+        System.out.println(chain);
+        Assert.assertEquals("[[a], [b, c], [d]]", Arrays.toString(chain.getNodes()));
+        Assert.assertNull(chain.getResourceByIdx(0));
+        Assert.assertEquals("db", chain.getResourceByIdx(1));
+        Assert.assertNull(chain.getResourceByIdx(2));
+
+        Graph.Builder<String> builder = Graph.builder();
+        builder.addNodes("root", "sink");
+        for (int i = 0; i < 4; i++) {
+            builder.addNode("l" + i);
+            builder.addEdge("root", "l" + i);
+            builder.addEdge("l" + i, "sink");
+        }
+        builder.resource("l2", "io").resource("l3", "io");
+        Graph<List<String>> fused = builder.build().fuse(100);
+        System.out.println(fused);
+        Assert.assertEquals("[[root, l0, l1], [l2, l3], [sink]]", Arrays.toString(fused.getNodes()));
+        Assert.assertEquals("io", fused.getResourceByIdx(1));
+        testExecute(fused);
+    }
+
+    @Test
+    public void testBulkBuilder() {
+        int n = 2000;
+        java.util.Random random = new java.util.Random(7);
+        java.util.Set<Long> seen = new java.util.HashSet<>();
+        int[] from = new int[20000];
+        int[] to = new int[20000];
+        int edges = 0;
+        while (edges < from.length) {
+            int a = random.nextInt(n - 1);
+            int b = a + 1 + random.nextInt(n - 1 - a);
+            if (seen.add((long) a * n + b)) {
+                from[edges] = a;
+                to[edges++] = b;
+            }
+        }
+        Graph<Integer> sequential = Graph.bulkBuilder(n).addEdges(from, to).cost(3, 5).build();
+        Graph<Integer> parallel = Graph.bulkBuilder(n).addEdges(from, to).cost(3, 5).parallel().build();
+        Assert.assertArrayEquals(sequential.getAdjacencyOffset(), parallel.getAdjacencyOffset());
+        Assert.assertArrayEquals(sequential.getAdjacency(), parallel.getAdjacency());
+        Assert.assertArrayEquals(sequential.getReverseAdjacency(), parallel.getReverseAdjacency());
+        Assert.assertArrayEquals(sequential.getBottomLevel(), parallel.getBottomLevel());
+        Assert.assertTrue(parallel.isDAG());
+
+        // 与逐个添加的构造器得到相同的拓扑, 后继按 id 升序
+        Graph.Builder<Integer> builder = Graph.builder();
+        for (int i = 0; i < n; i++) {
+            builder.addNode(i);
+        }
+        for (int e = 0; e < edges; e++) {
+            builder.addEdge(from[e], to[e]);
+        }
+        Graph<Integer> reference = builder.build();
+        Assert.assertArrayEquals(reference.getInDegree(), sequential.getInDegree());
+        Assert.assertArrayEquals(reference.getOutDegree(), sequential.getOutDegree());
+        Assert.assertArrayEquals(reference.getReverseAdjacency(), sequential.getReverseAdjacency());
+        for (int i = 0; i < n; i++) {
+            for (int k = sequential.adjacencyBegin(i) + 1; k < sequential.adjacencyEnd(i); k++) {
+                Assert.assertTrue(sequential.getAdjacency()[k - 1] < sequential.getAdjacency()[k]);
+            }
+        }
+
+        Graph<String> named = Graph.bulkBuilder(new String[]{"a", "b", "c"}).addEdge(0, 1).addEdge(0, 2).addEdge(1, 2).build();
+        Assert.assertEquals("Graph(nodes=[a, b, c], inDegree=[0, 1, 2], adjacencyList=[[1, 2], [2], []], outDegree=[2, 1, 0], reverseAdjacencyList=[[], [0], [0, 1]], zeroDegreeIdx=[0])", named.toString());
+
+        for (boolean p : new boolean[]{false, true}) {
+            Graph.BulkBuilder<Integer> duplicate = Graph.bulkBuilder(3).addEdge(0, 1).addEdge(1, 2).addEdge(0, 1);
+            Graph.BulkBuilder<Integer> unknown = Graph.bulkBuilder(3).addEdge(0, 1).addEdge(1, 3);
+            if (p) {
+                duplicate.parallel();
+                unknown.parallel();
+            }
+            try {
+                duplicate.build();
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().contains("duplicate edge 0 -> 1"));
+            }
+            try {
+                unknown.build();
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().contains("1 -> 3"));
+            }
+        }
+        try {
+            Graph.builder().addNodes("a").addEdge("a", "b").build();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("a -> b"));
+        }
+    }
+
+    @Test
+    public void testAnalyze() {
+        Graph<String> graph = Graph.builder()
+                .addNodes("a", "b", "c", "d", "e")
+                .addNode("f", 10)
+                .addEdge("a", "b")
+                .addEdge("a", "c")
+                .addEdge("a", "d")
+                .addEdge("b", "e")
+                .addEdge("c", "e")
+                .addEdge("f", "e")
+                .build();
+        GraphAnalysis<String> analysis = graph.analyze();
+        Assert.assertTrue(analysis.isDAG());
+        Assert.assertArrayEquals(new int[]{0, 1, 1, 1, 2, 0}, analysis.getLevel());
+        Assert.assertArrayEquals(new int[]{2, 3, 1}, analysis.getLevelWidth());
+        Assert.assertEquals(3, analysis.getDepth());
+        Assert.assertEquals(3, analysis.getMaxWidth());
+        Assert.assertEquals(11, analysis.getCriticalPathLength());
+
+        // 超过单任务粒度的宽层走并行分片, 结果与串行一致
+        int n = 100000;
+        int[] from = new int[2 * (n - 2)];
+        int[] to = new int[2 * (n - 2)];
+        for (int i = 1; i < n - 1; i++) {
+            from[2 * i - 2] = 0;
+            to[2 * i - 2] = i;
+            from[2 * i - 1] = i;
+            to[2 * i - 1] = n - 1;
+        }
+        GraphAnalysis<Integer> wide = Graph.bulkBuilder(n).addEdges(from, to).build().analyze(new java.util.concurrent.ForkJoinPool(4));
+        Assert.assertTrue(wide.isDAG());
+        Assert.assertEquals(3, wide.getDepth());
+        Assert.assertEquals(n - 2, wide.getMaxWidth());
+        Assert.assertEquals(2, wide.getLevel()[n - 1]);
+        Assert.assertEquals(3, wide.getCriticalPathLength());
+
+        // x -> y -> z -> x 之外还有环下游的节点 w 与无关的 v
+        Graph<String> cyclic = Graph.builder()
+                .addNodes("v", "x", "y", "z", "w")
+                .addEdge("v", "x")
+                .addEdge("x", "y")
+                .addEdge("y", "z")
+                .addEdge("z", "x")
+                .addEdge("z", "w")
+                .build();
+        GraphAnalysis<String> broken = cyclic.analyze();
+        Assert.assertFalse(broken.isDAG());
+        List<String> cycle = broken.getCycle();
+        Assert.assertEquals(3, cycle.size());
+        int start = cycle.indexOf("x");
+        Assert.assertEquals("y", cycle.get((start + 1) % 3));
+        Assert.assertEquals("z", cycle.get((start + 2) % 3));
+        Assert.assertArrayEquals(new int[]{0, -1, -1, -1, -1}, broken.getLevel());
+
+        Graph<String> self = Graph.builder().addNodes("s").addEdge("s", "s").build();
+        Assert.assertEquals(java.util.Collections.singletonList("s"), self.analyze().getCycle());
+    }
+
+    @Test
+    public void testGraphFile() throws Exception {
+        Graph.BulkBuilder<Integer> builder = Graph.bulkBuilder(200);
+        java.util.Random random = new java.util.Random(11);
+        for (int i = 0; i < 200; i++) {
+            builder.cost(i, 1 + random.nextInt(5)).outputSize(i, 64L * i);
+            if (i % 7 == 0) {
+                builder.resource(i, i % 2 == 0 ? "db" : "io");
+            }
+            if (i > 0) {
+                int from = random.nextInt(i);
+                builder.addEdge(from, i);
+                if (i > 1 && random.nextBoolean()) {
+                    builder.addEdge((from + 1 + random.nextInt(i - 1)) % i, i);
+                }
+            }
+        }
+        Graph<Integer> graph = builder.build();
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("graph");
+
+        java.nio.file.Path plain = dir.resolve("plain.graph");
+        GraphFile.write(graph, plain, Integer::intValue);
+        GraphFile file = GraphFile.map(plain);
+        Assert.assertFalse(file.isStaged());
+        Assert.assertEquals(graph.getAdjacency().length, file.getEdgeCount());
+        // 零拷贝视图与原数组一致
+        for (int k = 0; k < file.getEdgeCount(); k++) {
+            Assert.assertEquals(graph.getAdjacency()[k], file.adjacency().get(k));
+        }
+        Graph<Integer> loaded = file.toGraph(Integer::valueOf);
+        Assert.assertEquals(graph.toString(), loaded.toString());
+        Assert.assertArrayEquals(graph.getBottomLevel(), loaded.getBottomLevel());
+        Assert.assertArrayEquals(graph.getOutputSize(), loaded.getOutputSize());
+        Assert.assertArrayEquals(graph.getResource(), loaded.getResource());
+
+        java.nio.file.Path staged = dir.resolve("stages.graph");
+        Graph<List<Integer>> chain = graph.chaining();
+        GraphFile.writeStages(chain, staged, Integer::intValue);
+        GraphFile stageFile = GraphFile.map(staged);
+        Assert.assertTrue(stageFile.isStaged());
+        Graph<List<Integer>> loadedChain = stageFile.toStageGraph(Integer::valueOf);
+        Assert.assertEquals(chain.toString(), loadedChain.toString());
+        Assert.assertArrayEquals(chain.getCost(), loadedChain.getCost());
+        Assert.assertArrayEquals(chain.getResource(), loadedChain.getResource());
+        Assert.assertFalse(new ConcExecute<>(loadedChain, pool).executeSync((node, submitTime) -> {
+        }).isPresent());
+
+        try {
+            stageFile.toGraph(Integer::valueOf);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("stage graph"));
+        }
+    }
+
     private void testExecute(Graph<List<String>> chain) {
         new ConcExecute<>(chain, pool).executeSync(new ConcExecute.Handler<List<String>>() {
             @Override
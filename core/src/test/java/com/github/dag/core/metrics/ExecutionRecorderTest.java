@@ -0,0 +1,131 @@
+package com.github.dag.core.metrics;
+
+import com.github.dag.core.ExecutionListener;
+import com.github.dag.core.ExecutionPlan;
+import com.github.dag.core.graph.Graph;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExecutionRecorderTest {
+
+    private ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    /***
+     *       c(2)
+     *       |
+     *       b(1)   e(4)
+     *       |      |
+     *       a(0)   d(3)
+     */
+    private Graph<String> graph() {
+        return Graph.builder()
+                .addNodes("a", "b", "c", "d", "e")
+                .addEdge("a", "b")
+                .addEdge("b", "c")
+                .addEdge("d", "e")
+                .build();
+    }
+
+    @Test
+    public void testCriticalPath() {
+        Graph<String> graph = graph();
+        ExecutionRecorder recorder = new ExecutionRecorder(graph);
+        ExecutionPlan<String> plan = ExecutionPlan.builder(graph, pool).listener(recorder).build();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(plan.executeSync((node, submitTime) -> {
+                if (node.compareTo("c") <= 0) {
+                    sleep(5);
+                }
+            }).isPresent());
+        }
+        CriticalPathReport report = recorder.criticalPath();
+        System.out.println(report);
+        Assert.assertEquals(3, report.getSteps().size());
+        Assert.assertEquals("a", report.getSteps().get(0).getNode());
+        Assert.assertEquals("c", report.getSteps().get(2).getNode());
+        Assert.assertTrue(report.getRunNanos() >= TimeUnit.MILLISECONDS.toNanos(15));
+        Assert.assertTrue(report.getTotalNanos() >= report.getRunNanos());
+
+        Assert.assertEquals(3, recorder.getRunTime(1).getCount());
+        Assert.assertTrue(recorder.getRunTime(1).getPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(4));
+        Assert.assertEquals(3, recorder.getQueueWait(4).getCount());
+        Assert.assertEquals(3, recorder.getExecution().getCount());
+        System.out.println(recorder.getRunTime(1));
+    }
+
+    @Test
+    public void testListenerEvents() {
+        AtomicInteger submitted = new AtomicInteger();
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger cleaned = new AtomicInteger();
+        ExecutionListener listener = new ExecutionListener() {
+            @Override
+            public void onNodeSubmitted(int idx, long nanoTime) {
+                submitted.incrementAndGet();
+            }
+
+            @Override
+            public void onNodeStarted(int idx, long nanoTime) {
+                started.incrementAndGet();
+            }
+
+            @Override
+            public void onNodeFinished(int idx, long nanoTime) {
+                finished.incrementAndGet();
+            }
+
+            @Override
+            public void onNodeFailed(int idx, Throwable cause, long nanoTime) {
+                failed.incrementAndGet();
+            }
+
+            @Override
+            public void onNodeCleanedUp(int idx, long nanoTime) {
+                cleaned.incrementAndGet();
+            }
+        };
+        ExecutionPlan<String> plan = ExecutionPlan.builder(graph(), pool).inlineDepth(2).listener(listener).build();
+        Assert.assertFalse(plan.executeSync((node, submitTime) -> {
+        }).isPresent());
+        Assert.assertEquals(5, submitted.get());
+        Assert.assertEquals(5, started.get());
+        Assert.assertEquals(5, finished.get());
+        Assert.assertEquals(3, cleaned.get());
+
+        Assert.assertTrue(plan.executeSync((node, submitTime) -> {
+            if (node.equals("e")) {
+                throw new IllegalStateException(node);
+            }
+        }).isPresent());
+        Assert.assertEquals(1, failed.get());
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(100000, histogram.getMax());
+        Assert.assertEquals(50500, histogram.getMean());
+        long p50 = histogram.getPercentile(50);
+        Assert.assertTrue(p50 >= 50000 && p50 < 100000);
+        Assert.assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.dag.core.scheduler;
+
+import com.github.dag.core.ExecutionPlan;
+import com.github.dag.core.graph.Graph;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorkStealingSchedulerTest {
+
+    /***
+     *  0 -> 1..200 -> 201
+     */
+    @Test
+    public void testExecuteFanOut() throws InterruptedException {
+        Graph.Builder<Integer> builder = Graph.builder();
+        for (int i = 0; i <= 201; i++) {
+            builder.addNode(i);
+        }
+        for (int i = 1; i <= 200; i++) {
+            builder.addEdge(0, i);
+            builder.addEdge(i, 201);
+        }
+        Graph<Integer> graph = builder.build();
+
+        WorkStealingScheduler scheduler = new WorkStealingScheduler(4);
+        ExecutionPlan<Integer> plan = new ExecutionPlan<>(graph, scheduler);
+        AtomicInteger handled = new AtomicInteger();
+        for (int i = 0; i < 50; i++) {
+            Assert.assertFalse(plan.executeSync((node, submitTime) -> handled.incrementAndGet()).isPresent());
+        }
+        Assert.assertEquals(202 * 50, handled.get());
+        System.out.println(scheduler);
+        // 入度为 0 的节点由外部线程提交, 其余均由工作线程提交到本地队列
+        Assert.assertEquals(50, scheduler.getExternalSubmitCount());
+        Assert.assertEquals(201 * 50, scheduler.getLocalSubmitCount());
+        Assert.assertTrue(scheduler.getStealCount() <= scheduler.getLocalSubmitCount());
+
+        scheduler.shutdown();
+        Assert.assertTrue(scheduler.awaitTermination(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, scheduler.getQueueDepth());
+        Assert.assertEquals(202 * 50, scheduler.getExecutedCount());
+    }
+
+    @Test
+    public void testLocalLifo() throws InterruptedException {
+        WorkStealingScheduler scheduler = new WorkStealingScheduler(1);
+        StringBuffer order = new StringBuffer();
+        CountDownLatch latch = new CountDownLatch(1);
+        scheduler.execute(() -> {
+            scheduler.execute(() -> order.append('a'));
+            scheduler.execute(() -> order.append('b'));
+            scheduler.execute(() -> {
+                order.append('c');
+                latch.countDown();
+            });
+        });
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        Assert.assertTrue(scheduler.awaitTermination(1, TimeUnit.SECONDS));
+        Assert.assertEquals("cba", order.toString());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectAfterShutdown() {
+        WorkStealingScheduler scheduler = new WorkStealingScheduler(1);
+        scheduler.shutdown();
+        scheduler.execute(() -> {
+        });
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.dag.core.stream;
+
+import com.github.dag.core.graph.Graph;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamingExecutionTest {
+
+    private ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    /***
+     *        in
+     *       /  \
+     *   plus    times
+     *       \  /
+     *        sum     echo(另一个源点兼汇点)
+     */
+    private Graph<String> graph() {
+        return Graph.builder()
+                .addNodes("in", "plus", "times", "sum", "echo")
+                .addEdge("in", "plus")
+                .addEdge("in", "times")
+                .addEdge("plus", "sum")
+                .addEdge("times", "sum")
+                .build();
+    }
+
+    private static long compute(String node, List<Long> inputs) {
+        switch (node) {
+            case "plus":
+                return inputs.get(0) + 1;
+            case "times":
+                return inputs.get(0) * 10;
+            case "sum":
+                return inputs.get(0) + inputs.get(1);
+            default:
+                return inputs.get(0);
+        }
+    }
+
+    @Test
+    public void testOrderedPipeline() throws Exception {
+        for (int batchSize : new int[]{1, 7}) {
+            List<Map<String, Long>> results = new CopyOnWriteArrayList<>();
+            StreamingExecution<String, Long> stream = StreamingExecution.builder(graph(), pool)
+                    .queueCapacity(4)
+                    .batchSize(batchSize)
+                    .start(StreamingExecutionTest::compute, results::add);
+            for (long i = 0; i < 1000; i++) {
+                stream.submit(i);
+            }
+            stream.close();
+            stream.getCompletion().get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(1000, stream.getEmittedCount());
+            Assert.assertEquals(1000, results.size());
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertEquals(Long.valueOf(i + 1 + i * 10L), results.get(i).get("sum"));
+                Assert.assertEquals(Long.valueOf(i), results.get(i).get("echo"));
+            }
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        StreamingExecution<String, Long> stream = StreamingExecution.builder(graph(), pool)
+                .queueCapacity(2)
+                .start((node, inputs) -> {
+                    if (node.equals("sum")) {
+                        started.incrementAndGet();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return compute(node, inputs);
+                }, result -> {
+                });
+        AtomicInteger submitted = new AtomicInteger();
+        Thread producer = new Thread(() -> {
+            try {
+                for (long i = 0; i < 100; i++) {
+                    stream.submit(i);
+                    submitted.incrementAndGet();
+                }
+                stream.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        Thread.sleep(200);
+        // sum 阻塞时在途记录数受各级队列容量限制, 生产者被阻塞
+        Assert.assertEquals(1, started.get());
+        Assert.assertTrue("submitted " + submitted.get(), submitted.get() < 20);
+        release.countDown();
+        producer.join(10000);
+        stream.getCompletion().get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(100, stream.getEmittedCount());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        StreamingExecution<String, Long> stream = StreamingExecution.builder(graph(), pool)
+                .start((node, inputs) -> {
+                    if (node.equals("times") && inputs.get(0) == 5) {
+                        throw new IllegalStateException("boom");
+                    }
+                    return compute(node, inputs);
+                }, result -> {
+                });
+        try {
+            for (long i = 0; i < 1000; i++) {
+                stream.submit(i);
+            }
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("boom", e.getCause().getMessage());
+        }
+        try {
+            stream.getCompletion().join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertEquals("boom", e.getCause().getMessage());
+        }
+        Assert.assertTrue(stream.getEmittedCount() <= 5);
+    }
+}